@@ -0,0 +1,238 @@
+/*
+ * An animation: some frames and how long each one is shown for, timed by the game clock.
+ */
+package goodsky;
+
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * The frames of an animation and how long each is shown. Make one and give it to as many
+ * GameObjects (setAnimation) or EntityStore sprites (addAnimation) as you like, they all share it.
+ *
+ * Animations are timed by the game clock (gs.getGameTime), not by how many times something is drawn,
+ * so they run at the same speed at any frame rate and keep going when an object is off the screen.
+ * Nothing is counted per object: the frame to show is worked out from how long it has been playing.
+ * <pre>
+ * Animation walk = new Animation("walk.png", 32, 32, 8, 0.1);
+ * player.setAnimation(walk);
+ * </pre>
+ */
+public class Animation
+{
+    // The frames, shared by everything playing this animation
+    private final BufferedImage[] frames;
+
+    // When each frame ends (nanoseconds from the start), and how long the whole thing takes
+    private final long[] ends;
+    private long duration;
+
+    // Every frame is shown for this long, or 0 if they are different
+    private long uniform;
+
+    private boolean looping = true;
+
+    // The last frame worked out, lots of things asking at the same time is common
+    private long lasttime = -1;
+    private int lastframe = 0;
+
+    /**
+     * Make an animation from an image file with the frames on top of each other (like GameObject.setAnimatedImage).
+     * @param filename the image file
+     * @param width width of each frame in the image
+     * @param height height of each frame in the image
+     * @param frames number of frames
+     * @param secondsPerFrame how long each frame is shown for
+     */
+    public Animation(String filename, int width, int height, int frames, double secondsPerFrame)
+    {
+        this(load(filename, width, height, frames), secondsPerFrame);
+    }
+
+    /**
+     * Make an animation from images you made yourself.
+     * @param frames the frames (all the same size, don't change them after this)
+     * @param secondsPerFrame how long each frame is shown for
+     */
+    public Animation(BufferedImage[] frames, double secondsPerFrame)
+    {
+        if (frames == null || frames.length == 0)
+            throw new GoodSkyException("An Animation needs at least one frame");
+
+        this.frames = new BufferedImage[frames.length];
+        System.arraycopy(frames, 0, this.frames, 0, frames.length);
+
+        ends = new long[frames.length];
+        long t = nanos(secondsPerFrame);
+        for (int i = 0; i < ends.length; i++)
+            ends[i] = t * (i + 1);
+
+        duration = ends[ends.length - 1];
+        uniform = t;
+    }
+
+    /**
+     * Load the frames of an animation.
+     */
+    private static BufferedImage[] load(String filename, int width, int height, int frames)
+    {
+        try {
+            return AssetCache.getFrames(filename, width, height, frames);
+        } catch (IOException e) {
+            throw new GoodSkyException("BUMMER! I couldn't load the image file for an Animation! Make sure you typed the file name correctly!");
+        }
+    }
+
+    /**
+     * Seconds to nanoseconds, at least 1 so frames always take some time.
+     */
+    private static long nanos(double seconds)
+    {
+        if (!(seconds > 0))
+            throw new GoodSkyException("A frame of an Animation has to be shown for more than 0 seconds");
+
+        return Math.max(1, (long)(seconds * 1000000000L));
+    }
+
+    /**
+     * Change how long one frame is shown for, e.g. to hold the last frame of a punch a bit longer.
+     * @param frame the frame
+     * @param seconds how long it is shown for
+     */
+    public final void setFrameTime(int frame, double seconds)
+    {
+        if (frame < 0 || frame >= frames.length)
+            throw new GoodSkyException("This Animation doesn't have a frame " + frame);
+
+        long t = nanos(seconds);
+        long start = frame == 0 ? 0 : ends[frame - 1];
+        long change = start + t - ends[frame];
+        for (int i = frame; i < ends.length; i++)
+            ends[i] += change;
+
+        duration = ends[ends.length - 1];
+
+        // are all the frames the same length still?
+        uniform = ends[0];
+        for (int i = 1; i < ends.length && uniform != 0; i++)
+        {
+            if (ends[i] - ends[i - 1] != uniform)
+                uniform = 0;
+        }
+
+        lasttime = -1;
+    }
+
+    /**
+     * @param frame the frame
+     * @return how long the frame is shown for in seconds
+     */
+    public final double getFrameTime(int frame)
+    {
+        if (frame < 0 || frame >= frames.length)
+            throw new GoodSkyException("This Animation doesn't have a frame " + frame);
+
+        return (ends[frame] - (frame == 0 ? 0 : ends[frame - 1])) / 1e9;
+    }
+
+    /**
+     * Set whether the animation starts over after the last frame, or stops on it.
+     * @param onOff true to loop (the default), false to play once
+     */
+    public final void setLooping(boolean onOff)
+    {
+        looping = onOff;
+        lasttime = -1;
+    }
+
+    /**
+     * @return true if the animation starts over after the last frame
+     */
+    public final boolean isLooping()
+    {
+        return looping;
+    }
+
+    /**
+     * @return how many frames there are
+     */
+    public final int getFrameCount()
+    {
+        return frames.length;
+    }
+
+    /**
+     * @return how long the animation takes to play once, in seconds
+     */
+    public final double getDuration()
+    {
+        return duration / 1e9;
+    }
+
+    /**
+     * Which frame is shown after the animation has been playing for a while.
+     * @param nanos how long it has been playing (nanoseconds, like gs.getGameTime)
+     * @return the frame
+     */
+    public final int getFrameAt(long nanos)
+    {
+        if (nanos == lasttime)
+            return lastframe;
+
+        long t = nanos < 0 ? 0 : nanos;
+        int f;
+        if (t >= duration && !looping)
+            f = frames.length - 1;
+        else
+        {
+            t %= duration;
+            if (uniform != 0)
+                f = (int)(t / uniform);
+            else
+            {
+                // the first frame that ends after t
+                int lo = 0;
+                int hi = ends.length - 1;
+                while (lo < hi)
+                {
+                    int mid = (lo + hi) >>> 1;
+                    if (ends[mid] > t)
+                        hi = mid;
+                    else
+                        lo = mid + 1;
+                }
+                f = lo;
+            }
+        }
+
+        lasttime = nanos;
+        lastframe = f;
+        return f;
+    }
+
+    /**
+     * @param frame a frame
+     * @return how long after the start of the animation the frame comes up (nanoseconds)
+     */
+    long getFrameStart(int frame)
+    {
+        frame = Math.min(frame, ends.length - 1);
+        return frame <= 0 ? 0 : ends[frame - 1];
+    }
+
+    /**
+     * @return a frame's image
+     */
+    BufferedImage getImage(int frame)
+    {
+        return frames[frame];
+    }
+
+    /**
+     * @return the frames (don't change them)
+     */
+    BufferedImage[] frames()
+    {
+        return frames;
+    }
+}
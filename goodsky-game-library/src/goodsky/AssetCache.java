@@ -0,0 +1,258 @@
+/*
+ * Keeps the images and sounds we have loaded so objects using the same file share
+ * one copy instead of each loading their own.
+ */
+package goodsky;
+
+import java.awt.image.*;
+import java.io.*;
+import java.lang.ref.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.sound.midi.*;
+import javax.sound.sampled.*;
+
+/**
+ * A process wide cache of decoded images and sounds. Images are remembered by the full path of
+ * the file (and how it was cut into frames for animations), so the 500th bullet with
+ * the same sprite doesn't read the file again, it just shares the frames of the first one.
+ *
+ * The frames are held with soft references. As long as an object is still using them
+ * they stay around, and when nobody is using them Java is allowed to throw them away
+ * if it is running low on memory. The next load just reads the file again.
+ */
+class AssetCache
+{
+    // key -> the frames of an image, or a decoded sound
+    private static HashMap<String, Entry> cache = new HashMap<String, Entry>();
+
+    // Entries that were thrown away by the garbage collector
+    private static ReferenceQueue<Object> cleared = new ReferenceQueue<Object>();
+
+    // How many loads were found in the cache and how many had to read the file
+    private static long hits = 0;
+    private static long misses = 0;
+
+    private AssetCache() { }
+
+    /**
+     * Get a single image file.
+     * @param filename the image file
+     * @return the image (shared, don't draw on it!)
+     */
+    static BufferedImage getImage(String filename) throws IOException
+    {
+        String key = key(filename, "");
+
+        BufferedImage[] frames = (BufferedImage[])lookup(key);
+        if (frames == null)
+            frames = (BufferedImage[])store(key, new BufferedImage[] { read(filename) });
+
+        return frames[0];
+    }
+
+    /**
+     * Get the frames of an animation that are stacked on top of each other in one image file.
+     * @param filename the image file
+     * @param width width of each frame in the image
+     * @param height height of each frame in the image
+     * @param count number of frames
+     * @return the frames (shared, don't draw on them!)
+     */
+    static BufferedImage[] getFrames(String filename, int width, int height, int count) throws IOException
+    {
+        String key = key(filename, "|" + width + "x" + height + "x" + count);
+
+        BufferedImage[] frames = (BufferedImage[])lookup(key);
+        if (frames != null)
+            return frames;
+
+        // The whole sheet might already be loaded by itself
+        BufferedImage fullimage = getImage(filename);
+
+        frames = new BufferedImage[count];
+        for (int i = 0; i < count; i++)
+        {
+            if (i*height > fullimage.getHeight() || width > fullimage.getWidth())
+                throw new GoodSkyException("Error loading the animation image. Are you trying to load too many images? Or is your height or width too large?");
+
+            frames[i] = fullimage.getSubimage(0, i*height, width, height);
+        }
+
+        return (BufferedImage[])store(key, frames);
+    }
+
+    /**
+     * Get a sound file, fully decoded so a GameSound can start from it right away.
+     * @param filename the sound file (.wav, .mid, ...)
+     * @return the decoded sound (shared)
+     */
+    static Sound getSound(String filename) throws IOException
+    {
+        String key = key(filename, "|sound");
+
+        Sound s = (Sound)lookup(key);
+        if (s == null)
+            s = (Sound)store(key, readSound(filename));
+
+        return s;
+    }
+
+    /**
+     * @return how many image and sound loads were found in the cache
+     */
+    static synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return how many image and sound loads had to read the file
+     */
+    static synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Forget every image and sound and reset the hit and miss counts. Objects keep the ones they already have.
+     */
+    static synchronized void clear()
+    {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return the cached asset, or null if we have to load it
+     */
+    private static synchronized Object lookup(String key)
+    {
+        purge();
+
+        Entry e = cache.get(key);
+        Object asset = e == null ? null : e.get();
+
+        if (asset != null)
+            hits++;
+        else
+            misses++;
+
+        return asset;
+    }
+
+    /**
+     * Remember an asset. If another thread got there first we use its copy so everyone shares.
+     * @return the asset that is in the cache
+     */
+    private static synchronized Object store(String key, Object asset)
+    {
+        Entry e = cache.get(key);
+        Object old = e == null ? null : e.get();
+        if (old != null)
+            return old;
+
+        cache.put(key, new Entry(key, asset));
+        return asset;
+    }
+
+    /**
+     * Take out the entries the garbage collector emptied.
+     */
+    private static void purge()
+    {
+        Entry e;
+        while ((e = (Entry)cleared.poll()) != null)
+        {
+            // only if it wasn't replaced since
+            if (cache.get(e.key) == e)
+                cache.remove(e.key);
+        }
+    }
+
+    /**
+     * Read an image file, without holding the lock so other threads can load at the same time.
+     * The image is converted to the screen format here so it only happens once.
+     */
+    private static BufferedImage read(String filename) throws IOException
+    {
+        BufferedImage img = ImageIO.read(new File(filename));
+        if (img == null)
+            throw new IOException("Unknown image type " + filename);
+
+        return CompatibleImages.convert(img);
+    }
+
+    /**
+     * Decode a whole sound file. MIDI files become a Sequence, everything else becomes raw samples.
+     */
+    private static Sound readSound(String filename) throws IOException
+    {
+        File file = new File(filename);
+        Sound s = new Sound();
+
+        // See if this new file is a midi file or not
+        try {
+            MidiSystem.getMidiFileFormat(file);
+            s.sequence = MidiSystem.getSequence(file);
+            return s;
+        }
+        catch (InvalidMidiDataException e) { }
+
+        try {
+            AudioInputStream audioinput = AudioSystem.getAudioInputStream(file);
+
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[16384];
+                int n;
+                while ((n = audioinput.read(buf)) > 0)
+                    out.write(buf, 0, n);
+
+                s.format = audioinput.getFormat();
+                s.data = out.toByteArray();
+            }
+            finally {
+                audioinput.close();
+            }
+        }
+        catch (UnsupportedAudioFileException e) {
+            throw new IOException("Unknown sound type " + filename);
+        }
+
+        return s;
+    }
+
+    /**
+     * @return the name we remember a file by, so "a.png" and "./a.png" are the same image
+     */
+    private static String key(String filename, String layout) throws IOException
+    {
+        return new File(filename).getCanonicalPath() + layout;
+    }
+
+    /**
+     * A decoded sound. Either sequence is set (MIDI) or format and data are (sampled audio).
+     */
+    static class Sound
+    {
+        Sequence sequence;
+        AudioFormat format;
+        byte[] data;
+    }
+
+    /**
+     * Soft reference to an asset that knows its own key, so it can be taken out of the map once emptied.
+     */
+    private static class Entry extends SoftReference<Object>
+    {
+        final String key;
+
+        Entry(String key, Object asset)
+        {
+            super(asset, cleared);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Keeps track of which objects have collision on, by position and by
+ * collision group, so the collision functions only look at the objects
+ * they could actually hit.
+ */
+package goodsky;
+
+import java.util.*;
+
+/**
+ * Every object with collision on is filed twice: once with all the collision objects and once
+ * with the other objects in its collision group. Each of those has a SpatialGrid to find the
+ * objects near a cast, and a set in draw order (the order the collision functions check objects in).
+ *
+ * A cast against group -1 looks at all the collision objects, a cast against any other group
+ * only ever sees the objects in that group, no matter how many other objects there are.
+ */
+class CollisionIndex
+{
+    // Size of the grid cells in pixels
+    private final int cellsize;
+
+    // All the collision objects
+    private final Group all;
+
+    // collision group -> the collision objects in that group.
+    // An open addressing table on the raw int group numbers, so a cast never boxes its group.
+    private int[] groupkeys = new int[16];
+    private Group[] groups = new Group[16];
+    private int groupcount = 0;
+
+    // The group each object was filed in (its collisionGroup may have changed since)
+    private IdentityHashMap<GameObject, Group> filed = new IdentityHashMap<GameObject, Group>();
+
+    // Goes up every time an object is added or removed
+    private int version = 0;
+
+    /**
+     * Make an empty index.
+     * @param cellsize size of the grid cells in pixels
+     */
+    CollisionIndex(int cellsize)
+    {
+        // make the first grid now so a bad cell size fails right away
+        all = new Group(cellsize);
+        this.cellsize = cellsize;
+    }
+
+    /**
+     * Add an object, or move it to its new group if it is already in the index.
+     * @param obj the object
+     */
+    void add(GameObject obj)
+    {
+        Group old = filed.get(obj);
+        if (old != null)
+        {
+            if (old.id == obj.collisionGroup)
+                return;
+
+            remove(obj);
+        }
+
+        Group g = find(obj.collisionGroup);
+        if (g == null)
+        {
+            g = new Group(cellsize);
+            g.id = obj.collisionGroup;
+            insert(g);
+        }
+
+        all.add(obj);
+        g.add(obj);
+        filed.put(obj, g);
+        version++;
+    }
+
+    /**
+     * Take an object out of the index.
+     * @param obj the object
+     * @return true if it was in the index
+     */
+    boolean remove(GameObject obj)
+    {
+        Group g = filed.remove(obj);
+        if (g == null)
+            return false;
+
+        all.remove(obj);
+        g.remove(obj);
+
+        // forget groups nobody is in anymore
+        if (g.ordered.isEmpty())
+            erase(g.id);
+
+        version++;
+        return true;
+    }
+
+    /**
+     * Re-file an object that changed size.
+     * @param obj the object
+     */
+    void resize(GameObject obj)
+    {
+        Group g = filed.get(obj);
+        if (g == null)
+            return;
+
+        all.grid.refresh(obj);
+        g.grid.refresh(obj);
+    }
+
+    /**
+     * @return a number that changes every time an object is added or removed
+     */
+    int version()
+    {
+        return version;
+    }
+
+    /**
+     * @return every object in the index, in draw order
+     */
+    Collection<GameObject> objects()
+    {
+        return all.ordered;
+    }
+
+    /**
+     * Find the objects of a group that may touch a rectangle, in draw order.
+     * @param group the collision group, or -1 for all the collision objects
+     * @param x1 left of the rectangle
+     * @param y1 top of the rectangle
+     * @param x2 right of the rectangle
+     * @param y2 bottom of the rectangle
+     * @param out list to put the objects in (it is cleared first)
+     */
+    void query(int group, double x1, double y1, double x2, double y2, ArrayList<GameObject> out)
+    {
+        out.clear();
+
+        Group g = group == -1 ? all : find(group);
+        if (g == null)
+            return;
+
+        // objects may have moved since the last cast
+        g.grid.refresh();
+        g.grid.query(x1, y1, x2, y2, out);
+
+        // Put them in draw order. An insertion sort works in place (Collections.sort may make a copy),
+        // and there are only ever a few objects near a cast.
+        for (int i = 1; i < out.size(); i++)
+        {
+            GameObject obj = out.get(i);
+            int j = i - 1;
+            while (j >= 0 && out.get(j).compareTo(obj) > 0)
+            {
+                out.set(j + 1, out.get(j));
+                j--;
+            }
+            out.set(j + 1, obj);
+        }
+    }
+
+    /**
+     * @param group the collision group, or -1 for all the collision objects
+     * @return the grid of the group's objects, up to date with where they are now (null if the group has no objects)
+     */
+    SpatialGrid grid(int group)
+    {
+        Group g = group == -1 ? all : find(group);
+        if (g == null)
+            return null;
+
+        g.grid.refresh();
+        return g.grid;
+    }
+
+    /**
+     * @param group the collision group, or -1 for all the collision objects
+     * @return the object of the group that comes last in draw order, or null if there are none
+     */
+    GameObject last(int group)
+    {
+        Group g = group == -1 ? all : find(group);
+        if (g == null || g.ordered.isEmpty())
+            return null;
+
+        return g.ordered.last();
+    }
+
+    /**
+     * @return the group with a number, or null if no object is in it
+     */
+    private Group find(int id)
+    {
+        int mask = groups.length - 1;
+        for (int i = slot(id, mask); groups[i] != null; i = (i + 1) & mask)
+        {
+            if (groupkeys[i] == id)
+                return groups[i];
+        }
+
+        return null;
+    }
+
+    /**
+     * Put a group in the table (its number isn't in there yet).
+     */
+    private void insert(Group g)
+    {
+        // keep the table at most half full so lookups stay short
+        if ((groupcount + 1) * 2 > groups.length)
+            rehash(groups.length * 2);
+
+        int mask = groups.length - 1;
+        int i = slot(g.id, mask);
+        while (groups[i] != null)
+            i = (i + 1) & mask;
+
+        groupkeys[i] = g.id;
+        groups[i] = g;
+        groupcount++;
+    }
+
+    /**
+     * Take a group out of the table.
+     */
+    private void erase(int id)
+    {
+        int mask = groups.length - 1;
+        int i = slot(id, mask);
+        while (groups[i] != null && groupkeys[i] != id)
+            i = (i + 1) & mask;
+
+        if (groups[i] == null)
+            return;
+
+        groups[i] = null;
+        groupcount--;
+
+        // move later groups of the same run back so none of them is cut off from its slot by the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; groups[j] != null; j = (j + 1) & mask)
+        {
+            int home = slot(groupkeys[j], mask);
+            boolean between = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!between)
+            {
+                groupkeys[hole] = groupkeys[j];
+                groups[hole] = groups[j];
+                groups[j] = null;
+                hole = j;
+            }
+        }
+    }
+
+    /**
+     * Make the group table bigger.
+     */
+    private void rehash(int size)
+    {
+        Group[] old = groups;
+
+        groupkeys = new int[size];
+        groups = new Group[size];
+        groupcount = 0;
+
+        for (int i = 0; i < old.length; i++)
+        {
+            if (old[i] != null)
+                insert(old[i]);
+        }
+    }
+
+    /**
+     * @return the slot a group number starts looking from (the bits are mixed so nearby numbers spread out)
+     */
+    private static int slot(int id, int mask)
+    {
+        return ((id * 0x9E3779B9) >>> 16) & mask;
+    }
+
+    /**
+     * Some collision objects, by position and in draw order.
+     */
+    private static class Group
+    {
+        int id = -1;
+        final SpatialGrid grid;
+        final TreeSet<GameObject> ordered = new TreeSet<GameObject>();
+
+        Group(int cellsize)
+        {
+            grid = new SpatialGrid(cellsize);
+        }
+
+        void add(GameObject obj)
+        {
+            grid.add(obj);
+            ordered.add(obj);
+        }
+
+        void remove(GameObject obj)
+        {
+            grid.remove(obj);
+            ordered.remove(obj);
+        }
+    }
+}
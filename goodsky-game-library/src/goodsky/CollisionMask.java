@@ -0,0 +1,163 @@
+/*
+ * Which pixels of an image are solid, packed 64 to a long, so pixel perfect
+ * collision can check 64 pixels at a time.
+ */
+package goodsky;
+
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * A bit for every pixel of an image: 1 if the pixel can be seen (its alpha isn't 0), 0 if it is
+ * see-through. Each row is stored in longs, pixel x of a row is bit (x % 64) of long (x / 64).
+ *
+ * Checking if two masks overlap lines up 64 pixels of one mask with 64 pixels of the other
+ * with a shift, and ANDs them, so a whole row of a normal sized sprite is one or two steps.
+ * Checking a single point is one bit lookup.
+ *
+ * Masks are made the first time an image is checked and are remembered for as long as the image
+ * is around. Objects share turned images (see TransformCache), so they share masks too.
+ */
+class CollisionMask
+{
+    // The masks of the images we have seen (the images are weak keys, when an image is gone so is its mask)
+    private static WeakHashMap<BufferedImage, CollisionMask> masks = new WeakHashMap<BufferedImage, CollisionMask>();
+
+    /** Width of the mask in pixels */
+    final int width;
+    /** Height of the mask in pixels */
+    final int height;
+
+    // longs per row, and the bits of all the rows one after another
+    private final int words;
+    private final long[] bits;
+
+    // The distance field, made the first time a cast needs it
+    private DistanceField field = null;
+
+    /**
+     * Get the mask of an image, making it if this is the first time.
+     * @param img the image
+     * @return the mask of the image
+     */
+    static synchronized CollisionMask get(BufferedImage img)
+    {
+        CollisionMask m = masks.get(img);
+        if (m == null)
+        {
+            m = new CollisionMask(img);
+            masks.put(img, m);
+        }
+
+        return m;
+    }
+
+    /**
+     * Make the mask of an image.
+     */
+    private CollisionMask(BufferedImage img)
+    {
+        width = img.getWidth();
+        height = img.getHeight();
+        words = (width + 63) >>> 6;
+        bits = new long[words * height];
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++)
+        {
+            img.getRGB(0, y, width, 1, row, 0, width);
+
+            int off = y * words;
+            for (int x = 0; x < width; x++)
+            {
+                if ((row[x] >>> 24) != 0)
+                    bits[off + (x >>> 6)] |= 1L << (x & 63);
+            }
+        }
+    }
+
+    /**
+     * See if a pixel is solid.
+     * @param x pixel x in the mask
+     * @param y pixel y in the mask
+     * @return true if the pixel is solid, false if it is see-through or outside the mask
+     */
+    boolean get(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return false;
+
+        return (bits[y * words + (x >>> 6)] & (1L << (x & 63))) != 0;
+    }
+
+    /**
+     * @return the distance field of this mask (made the first time it is asked for)
+     */
+    synchronized DistanceField field()
+    {
+        if (field == null)
+            field = new DistanceField(this);
+
+        return field;
+    }
+
+    /**
+     * See if two masks have a solid pixel in the same place.
+     * @param a the first mask
+     * @param ax left of the first mask in the world
+     * @param ay top of the first mask in the world
+     * @param b the second mask
+     * @param bx left of the second mask in the world
+     * @param by top of the second mask in the world
+     * @return true if they overlap
+     */
+    static boolean overlap(CollisionMask a, int ax, int ay, CollisionMask b, int bx, int by)
+    {
+        // The part of the world both masks cover
+        int x1 = Math.max(ax, bx);
+        int y1 = Math.max(ay, by);
+        int x2 = Math.min(ax + a.width, bx + b.width);
+        int y2 = Math.min(ay + a.height, by + b.height);
+        if (x1 >= x2 || y1 >= y2)
+            return false;
+
+        for (int y = y1; y < y2; y++)
+        {
+            int aoff = (y - ay) * a.words;
+            int boff = (y - by) * b.words;
+
+            // 64 pixels at a time
+            for (int x = x1; x < x2; x += 64)
+            {
+                long bitsa = a.row64(aoff, x - ax);
+                long bitsb = b.row64(boff, x - bx);
+                long both = bitsa & bitsb;
+
+                // don't count pixels past the end of the overlap
+                int left = x2 - x;
+                if (left < 64)
+                    both &= (1L << left) - 1;
+
+                if (both != 0)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the 64 pixels of a row starting at pixel x, as bits (pixels past the end of the row are 0)
+     */
+    private long row64(int rowoff, int x)
+    {
+        int w = x >>> 6;
+        int shift = x & 63;
+
+        long v = bits[rowoff + w] >>> shift;
+        if (shift != 0 && w + 1 < words)
+            v |= bits[rowoff + w + 1] << (64 - shift);
+
+        return v;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Makes images in the same pixel format as the screen, so drawing them is
+ * a straight copy instead of a slow conversion every frame.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * Java can only copy an image to the screen quickly (and with the graphics card) if the image
+ * is stored the same way as the screen. Images read from files usually aren't, so every
+ * drawImage would convert each pixel again. We convert loaded images once, and make the images
+ * we draw into ourselves in the screen format from the start.
+ *
+ * When there is no screen (headless) we use the formats that copy fastest onto the
+ * TYPE_INT_RGB buffer gs draws into.
+ */
+class CompatibleImages
+{
+    // Turned off by gs.setCompatibleImages(false)
+    static volatile boolean enabled = true;
+
+    // The screen's format (null when headless), looked up the first time we need it
+    private static GraphicsConfiguration config = null;
+    private static boolean looked = false;
+
+    private CompatibleImages() { }
+
+    /**
+     * Make a new empty image in the screen format.
+     * @param width width of the image
+     * @param height height of the image
+     * @param transparency Transparency.OPAQUE, BITMASK or TRANSLUCENT
+     * @return the new image (all see-through, or black if it is opaque)
+     */
+    static BufferedImage create(int width, int height, int transparency)
+    {
+        if (!enabled)
+            return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+
+        GraphicsConfiguration gc = config();
+        if (gc != null)
+            return gc.createCompatibleImage(width, height, transparency);
+
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * Copy an image into the screen format, if it isn't in it already.
+     * @param img the image to convert
+     * @return a converted copy, or the same image if no conversion is needed
+     */
+    static BufferedImage convert(BufferedImage img)
+    {
+        if (!enabled)
+            return img;
+
+        int transparency = transparency(img);
+
+        GraphicsConfiguration gc = config();
+        if (gc != null)
+        {
+            if (img.getColorModel().equals(gc.getColorModel(transparency)))
+                return img;
+        }
+        else if (img.getType() == (transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE))
+            return img;
+
+        BufferedImage copy = create(img.getWidth(), img.getHeight(), transparency);
+        Graphics2D g = copy.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+
+        return copy;
+    }
+
+    /**
+     * Find out how see-through an image really is. A PNG with an alpha channel that only uses
+     * fully clear and fully solid pixels is BITMASK, which the screen can draw faster.
+     */
+    private static int transparency(BufferedImage img)
+    {
+        int t = img.getColorModel().getTransparency();
+        if (t != Transparency.TRANSLUCENT)
+            return t;
+
+        int w = img.getWidth();
+        int[] row = new int[w];
+        for (int y = 0; y < img.getHeight(); y++)
+        {
+            img.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++)
+            {
+                int a = row[x] >>> 24;
+                if (a != 0 && a != 255)
+                    return Transparency.TRANSLUCENT;
+            }
+        }
+
+        return Transparency.BITMASK;
+    }
+
+    /**
+     * @return the screen's graphics configuration, or null if there is no screen
+     */
+    private static synchronized GraphicsConfiguration config()
+    {
+        if (!looked)
+        {
+            looked = true;
+            if (!GraphicsEnvironment.isHeadless())
+                config = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        }
+
+        return config;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * How far every pixel of a collision mask is from the nearest solid pixel,
+ * so a moving circle can jump straight across empty space.
+ */
+package goodsky;
+
+/**
+ * A signed distance field for a CollisionMask. Every pixel stores how far it is from the
+ * nearest solid pixel (0 on the edge of the shape), or minus how far it is from the nearest
+ * see-through pixel if it is solid itself. Distances are measured between pixel positions,
+ * the same integer positions isOverlapPoint looks at.
+ *
+ * If a circle's center is further from everything than its radius, the circle can move that
+ * far in any direction without touching anything. Moving by that much again and again is called
+ * sphere tracing, and it gets across open space in a few steps instead of one pixel at a time.
+ *
+ * The field is PAD pixels bigger than the mask on every side, so the pixels on the edge of the
+ * shape see the empty space around the image, and circles touching the shape are inside the field.
+ */
+class DistanceField
+{
+    // How far a point can be from the pixel it rounds to
+    static final double HALF_DIAGONAL = 0.7072;
+
+    // Pixels of empty space kept around the mask. Outside the field distances are only guessed
+    // (never too big, but maybe a bit too small), so this is room for circles of about this radius to touch exactly
+    static final int PAD = 16;
+
+    /** Width of the mask in pixels */
+    final int width;
+    /** Height of the mask in pixels */
+    final int height;
+
+    // The distances, with PAD pixels around the mask: pixel x, y is at (y + PAD) * stride + x + PAD
+    private final int stride;
+    private final float[] dist;
+
+    /**
+     * Work out the distances for a mask.
+     * @param mask the mask
+     */
+    DistanceField(CollisionMask mask)
+    {
+        width = mask.width;
+        height = mask.height;
+        stride = width + 2*PAD;
+
+        int w = width + 2*PAD;
+        int h = height + 2*PAD;
+        int n = w * h;
+
+        boolean[] solid = new boolean[n];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                solid[(y + PAD) * w + x + PAD] = mask.get(x, y);
+        }
+
+        // squared distance to the nearest solid pixel, and to the nearest see-through pixel
+        float[] out = new float[n];
+        float[] in = new float[n];
+        for (int i = 0; i < n; i++)
+        {
+            out[i] = solid[i] ? 0 : Float.MAX_VALUE;
+            in[i] = solid[i] ? Float.MAX_VALUE : 0;
+        }
+
+        transform(out, w, h);
+        transform(in, w, h);
+
+        dist = new float[n];
+        for (int i = 0; i < n; i++)
+            dist[i] = solid[i] ? -(float)Math.sqrt(in[i]) : (float)Math.sqrt(out[i]);
+    }
+
+    /**
+     * Find out how much room there is around a point. The answer is never more than the real
+     * distance to the nearest solid pixel, so it is always safe to move that far.
+     * @param px x of the point, in mask pixels (may be outside the mask)
+     * @param py y of the point, in mask pixels (may be outside the mask)
+     * @return the room around the point (negative if it is inside the shape)
+     */
+    double clearance(double px, double py)
+    {
+        // the closest point of the field
+        double ex = Math.max(-PAD, Math.min(width + PAD - 1, px));
+        double ey = Math.max(-PAD, Math.min(height + PAD - 1, py));
+
+        // each of the 4 pixels around it is at least its distance minus how far away it is from the solid pixels
+        int x0 = (int)Math.floor(ex);
+        int y0 = (int)Math.floor(ey);
+        int x1 = Math.min(x0 + 1, width + PAD - 1);
+        int y1 = Math.min(y0 + 1, height + PAD - 1);
+        double room = Math.max(Math.max(at(x0, y0) - dist(ex, ey, x0, y0), at(x1, y0) - dist(ex, ey, x1, y0)),
+                               Math.max(at(x0, y1) - dist(ex, ey, x0, y1), at(x1, y1) - dist(ex, ey, x1, y1)));
+
+        if (ex == px && ey == py)
+            return room;
+
+        // Outside the field: every solid pixel is further in than the edge, so the distance out to us adds on at right angles
+        room = Math.max(0, room);
+        double ox = px - ex;
+        double oy = py - ey;
+        return Math.sqrt(ox*ox + oy*oy + room*room);
+    }
+
+    /**
+     * A smooth guess of the distance at a point (blended from the 4 pixels around it),
+     * good for finding which way the surface faces.
+     * @param px x of the point, in mask pixels
+     * @param py y of the point, in mask pixels
+     * @return the distance at the point
+     */
+    double sample(double px, double py)
+    {
+        // past the edge of the field, carry on from the edge
+        double cx = Math.max(-PAD, Math.min(width + PAD - 1, px));
+        double cy = Math.max(-PAD, Math.min(height + PAD - 1, py));
+        double extra = Math.sqrt((px - cx)*(px - cx) + (py - cy)*(py - cy));
+
+        int x0 = (int)Math.floor(cx);
+        int y0 = (int)Math.floor(cy);
+        int x1 = Math.min(x0 + 1, width + PAD - 1);
+        int y1 = Math.min(y0 + 1, height + PAD - 1);
+        double fx = cx - x0;
+        double fy = cy - y0;
+
+        double top = at(x0, y0) * (1 - fx) + at(x1, y0) * fx;
+        double bottom = at(x0, y1) * (1 - fx) + at(x1, y1) * fx;
+        return top * (1 - fy) + bottom * fy + extra;
+    }
+
+    /**
+     * @return how far a point is from a pixel
+     */
+    private static double dist(double px, double py, int x, int y)
+    {
+        return Math.sqrt((px - x)*(px - x) + (py - y)*(py - y));
+    }
+
+    /**
+     * @return the distance at a pixel (-PAD to width + PAD - 1, -PAD to height + PAD - 1)
+     */
+    private float at(int x, int y)
+    {
+        return dist[(y + PAD) * stride + x + PAD];
+    }
+
+    /**
+     * Turn 0 / MAX_VALUE into squared distances to the nearest 0, a row at a time and then a
+     * column at a time (Felzenszwalb and Huttenlocher's method, exact and linear time).
+     */
+    private static void transform(float[] grid, int w, int h)
+    {
+        int m = Math.max(w, h);
+        float[] f = new float[m];
+        float[] d = new float[m];
+        int[] v = new int[m];
+        float[] z = new float[m + 1];
+
+        for (int y = 0; y < h; y++)
+        {
+            for (int x = 0; x < w; x++)
+                f[x] = grid[y * w + x];
+
+            transform1(f, w, d, v, z);
+
+            for (int x = 0; x < w; x++)
+                grid[y * w + x] = d[x];
+        }
+
+        for (int x = 0; x < w; x++)
+        {
+            for (int y = 0; y < h; y++)
+                f[y] = grid[y * w + x];
+
+            transform1(f, h, d, v, z);
+
+            for (int y = 0; y < h; y++)
+                grid[y * w + x] = d[y];
+        }
+    }
+
+    /**
+     * @return where the parabolas at p and q cross
+     */
+    private static float cross(float[] f, int q, int p)
+    {
+        return ((f[q] + (float)q*q) - (f[p] + (float)p*p)) / (2f * (q - p));
+    }
+
+    /**
+     * One row (or column) of the transform: the lower envelope of the parabolas at each point.
+     */
+    private static void transform1(float[] f, int n, float[] d, int[] v, float[] z)
+    {
+        // skip the points that are still infinitely far, they don't make a parabola
+        int k = -1;
+        for (int q = 0; q < n; q++)
+        {
+            if (f[q] == Float.MAX_VALUE)
+                continue;
+
+            if (k < 0)
+            {
+                k = 0;
+                v[0] = q;
+                z[0] = -Float.MAX_VALUE;
+                z[1] = Float.MAX_VALUE;
+                continue;
+            }
+
+            // drop the parabolas the new one is lower than everywhere they were lowest
+            float s = cross(f, q, v[k]);
+            while (s <= z[k])
+            {
+                k--;
+                s = cross(f, q, v[k]);
+            }
+
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Float.MAX_VALUE;
+        }
+
+        if (k < 0)
+        {
+            for (int q = 0; q < n; q++)
+                d[q] = Float.MAX_VALUE;
+            return;
+        }
+
+        int j = 0;
+        for (int q = 0; q < n; q++)
+        {
+            while (z[j + 1] < q)
+                j++;
+
+            int p = v[j];
+            d[q] = (q - p)*(q - p) + f[p];
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Everything that has to be drawn for one frame, written down so it can be
+ * drawn later (possibly on another thread).
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * A list of draw commands for one frame: the background and then every image (objects
+ * first, then text) with the screen position to draw it at, in the order to draw them.
+ * Text that isn't in the text cache yet has no image, its string is kept instead and drawn with drawString.
+ *
+ * gs fills one of these on the game thread and then paints it. The images in the list are
+ * never changed after they are made (objects make a new image when they turn or scale),
+ * so once the list is filled it can be painted on the render thread while the game thread
+ * goes on to the next frame.
+ */
+class DrawList
+{
+    // The background: tiled world, image, plain color or nothing
+    TiledBackground tiled;
+    BufferedImage background;
+    Color color;
+    int camerax;
+    int cameray;
+    int width;
+    int height;
+
+    // The images to draw and where, count says how many are in use
+    BufferedImage[] images = new BufferedImage[64];
+    int[] xs = new int[64];
+    int[] ys = new int[64];
+    int count = 0;
+
+    // For text drawn without an image (the image is null): the string, color and font, drawn at x and the baseline y
+    String[] strings = new String[64];
+    Color[] colors = new Color[64];
+    Font[] fonts = new Font[64];
+
+    // images before this are objects, the rest are text
+    int textstart = 0;
+
+    // How long each phase took the last time this list was painted (see FrameStats)
+    long[] phase_ns = new long[FrameStats.PHASES];
+
+    /**
+     * Make an empty draw list.
+     */
+    DrawList()
+    {
+        clear();
+    }
+
+    /**
+     * Empty the list so it can be filled for a new frame.
+     */
+    void clear()
+    {
+        // let go of the images so old frames can be garbage collected
+        for (int i = 0; i < count; i++)
+        {
+            images[i] = null;
+            strings[i] = null;
+            colors[i] = null;
+            fonts[i] = null;
+        }
+
+        count = 0;
+        textstart = 0;
+        tiled = null;
+        background = null;
+        color = null;
+
+        for (int p = 0; p < phase_ns.length; p++)
+            phase_ns[p] = -1;
+    }
+
+    /**
+     * Add an image to draw.
+     * @param img the image
+     * @param x left of the image on the screen
+     * @param y top of the image on the screen
+     */
+    void add(BufferedImage img, int x, int y)
+    {
+        if (count == images.length)
+            grow();
+
+        images[count] = img;
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+    }
+
+    /**
+     * Add a string to draw with drawString.
+     * @param msg the text
+     * @param col color of the text
+     * @param font font of the text
+     * @param x left of the text on the screen
+     * @param y the text baseline on the screen
+     */
+    void addText(String msg, Color col, Font font, int x, int y)
+    {
+        if (count == images.length)
+            grow();
+
+        strings[count] = msg;
+        colors[count] = col;
+        fonts[count] = font;
+        add(null, x, y);
+    }
+
+    /**
+     * Make room for twice as many things.
+     */
+    private void grow()
+    {
+        int n = count * 2;
+
+        BufferedImage[] i = new BufferedImage[n];
+        System.arraycopy(images, 0, i, 0, count);
+        images = i;
+
+        int[] a = new int[n];
+        System.arraycopy(xs, 0, a, 0, count);
+        xs = a;
+
+        a = new int[n];
+        System.arraycopy(ys, 0, a, 0, count);
+        ys = a;
+
+        String[] s = new String[n];
+        System.arraycopy(strings, 0, s, 0, count);
+        strings = s;
+
+        Color[] c = new Color[n];
+        System.arraycopy(colors, 0, c, 0, count);
+        colors = c;
+
+        Font[] f = new Font[n];
+        System.arraycopy(fonts, 0, f, 0, count);
+        fonts = f;
+    }
+}
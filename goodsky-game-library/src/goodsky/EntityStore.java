@@ -0,0 +1,695 @@
+/*
+ * Lots and lots of simple sprites, kept in plain arrays instead of one
+ * GameObject each, for scenes with tens of thousands of things on the go.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * Holds a big number of simple entities (bullets, particles, crowds, tiles...) that each only have a
+ * position, a velocity, a depth, a sprite and an animation frame. They can't turn, scale or collide like
+ * GameObjects, but there is no object for each of them: everything is kept in arrays, so a hundred
+ * thousand entities cost a few megabytes and moving and drawing them is a quick walk down the arrays.
+ *
+ * Make a store, give it the sprites you want to use, then add entities with a sprite id, e.g.
+ * <pre>
+ * EntityStore bullets = new EntityStore();
+ * int BULLET = bullets.addSprite("bullet.png");
+ *
+ * int b = bullets.add(BULLET, player.x, player.y);
+ * bullets.setVelocity(b, 0, -8);
+ *
+ * // in the game loop
+ * bullets.update();
+ * gs.sync();
+ * </pre>
+ * A store is drawn by gs.sync() together with the GameObjects, in depth order (entities at the same depth
+ * as a GameObject are drawn on top of it). Each entity is centered on its position like a GameObject.
+ * While a store has entities in it, dirty rectangle drawing redraws the whole screen.
+ */
+public class EntityStore
+{
+    // The sprites the entities are drawn with
+    private SpriteSet sprites = new SpriteSet("EntityStore");
+
+    // The entities, one slot each, kept in draw order (deepest first, then oldest first)
+    private double[] x;
+    private double[] y;
+    private double[] vx;
+    private double[] vy;
+    private double[] prevx;
+    private double[] prevy;
+    private int[] depth;
+    private int[] frame;
+    private int[] sprite;
+    private boolean[] alive;
+    private int[] idof;
+    private int count = 0;
+
+    // How many slots hold removed entities (they are cleaned out before the next walk)
+    private int dead = 0;
+
+    // true if an entity was added or changed depth out of draw order
+    private boolean unsorted = false;
+
+    // entity id -> slot (-1 if the id isn't in use), and ids that can be handed out again
+    private int[] slotof;
+    private int[] freeids;
+    private int freecount = 0;
+    private int nextid = 0;
+
+    // Ids of removed entities that are still in a dead slot, they are freed when the slot is cleaned out
+    private int[] deadids;
+    private int deadcount = 0;
+
+    // Scratch space for sorting (kept so sorting doesn't make garbage every time)
+    private int[] perm;
+    private int[] permtmp;
+    private double[] dscratch;
+    private int[] iscratch;
+
+    // Where the draw walk is up to this frame
+    private int cursor = 0;
+
+    private boolean visible = true;
+
+    /**
+     * Make an empty entity store and add it to the game, room is made for more entities as you add them.
+     */
+    public EntityStore()
+    {
+        this(1024);
+    }
+
+    /**
+     * Make an empty entity store and add it to the game.
+     * @param capacity how many entities to make room for right away
+     */
+    public EntityStore(int capacity)
+    {
+        allocate(Math.max(16, capacity));
+        gs.addEntityStore(this);
+    }
+
+    /**
+     * Take the store out of the game, its entities won't be drawn anymore.
+     */
+    public final void destroy()
+    {
+        gs.removeEntityStore(this);
+    }
+
+    /**
+     * Add a sprite from an image file.
+     * @param filename the image file. e.g. "bullet.png"
+     * @return the sprite id to give to add() and setSprite()
+     */
+    public final int addSprite(String filename)
+    {
+        return sprites.addFile(filename);
+    }
+
+    /**
+     * Add an animated sprite from an image file with the frames on top of each other (like GameObject.setAnimatedImage).
+     * @param filename the image file
+     * @param width width of each frame in the image
+     * @param height height of each frame in the image
+     * @param frames number of frames
+     * @return the sprite id to give to add() and setSprite()
+     */
+    public final int addAnimatedSprite(String filename, int width, int height, int frames)
+    {
+        return sprites.addAnimated(filename, width, height, frames);
+    }
+
+    /**
+     * Add a sprite that is a plain shape (like GameObject.setShape).
+     * @param shape the shape. e.g. gs.CIRCLE
+     * @param size the size (in pixels) of the shape
+     * @param c the color of the shape
+     * @return the sprite id to give to add() and setSprite()
+     */
+    public final int addSprite(int shape, int size, Color c)
+    {
+        return sprites.addShape(shape, size, c);
+    }
+
+    /**
+     * Add a sprite that plays an Animation by the game clock. Entities with it animate by themselves
+     * (animate() is not needed) and every one of them shares the Animation's timing, so even millions of
+     * them cost nothing extra to keep animated. They are all in step, unless you start some on other
+     * frames with setFrame.
+     * @param anim the animation (looping ones make the most sense here)
+     * @return the sprite id to give to add() and setSprite()
+     */
+    public final int addAnimation(Animation anim)
+    {
+        return sprites.addAnimation(anim);
+    }
+
+    /**
+     * Add a sprite made of images you made yourself (one for each animation frame).
+     * @param frames the frames of the sprite (all the same size, don't change them after this)
+     * @return the sprite id to give to add() and setSprite()
+     */
+    public final int addSprite(BufferedImage[] frames)
+    {
+        return sprites.add(frames);
+    }
+
+    /**
+     * Add an entity.
+     * @param spriteid the sprite to draw it with (from addSprite)
+     * @param x x position of the center of the entity
+     * @param y y position of the center of the entity
+     * @return the id of the entity, use it to change or remove the entity later (ids of removed entities are used again)
+     */
+    public final int add(int spriteid, double x, double y)
+    {
+        sprites.check(spriteid);
+
+        if (count == this.x.length)
+        {
+            clean();
+            if (count == this.x.length)
+                allocate(count * 2);
+        }
+
+        // hand out an old id if we have one
+        if (freecount == 0 && deadcount > 0)
+            clean();
+
+        int id;
+        if (freecount > 0)
+            id = freeids[--freecount];
+        else
+        {
+            if (nextid == slotof.length)
+            {
+                int[] s = new int[nextid * 2];
+                System.arraycopy(slotof, 0, s, 0, nextid);
+                slotof = s;
+            }
+            id = nextid++;
+        }
+
+        // new entities go at the end, which is in draw order unless something before it is drawn above it
+        int s = count++;
+        if (s > 0 && depth[s - 1] < 0)
+            unsorted = true;
+
+        this.x[s] = x;
+        this.y[s] = y;
+        vx[s] = 0;
+        vy[s] = 0;
+        prevx[s] = x;
+        prevy[s] = y;
+        depth[s] = 0;
+        frame[s] = 0;
+        sprite[s] = spriteid;
+        alive[s] = true;
+        idof[s] = id;
+        slotof[id] = s;
+
+        return id;
+    }
+
+    /**
+     * Remove an entity. Its id may be handed out again by add().
+     * @param id the entity
+     */
+    public final void remove(int id)
+    {
+        int s = slot(id);
+
+        // the slot is cleaned out later, so removing lots of entities at once doesn't shuffle the arrays every time
+        alive[s] = false;
+        slotof[id] = -1;
+        dead++;
+
+        if (deadcount == deadids.length)
+        {
+            int[] d = new int[deadcount * 2];
+            System.arraycopy(deadids, 0, d, 0, deadcount);
+            deadids = d;
+        }
+        deadids[deadcount++] = id;
+    }
+
+    /**
+     * Remove every entity (the sprites stay).
+     */
+    public final void clear()
+    {
+        for (int s = 0; s < count; s++)
+        {
+            if (alive[s])
+                remove(idof[s]);
+        }
+        clean();
+    }
+
+    /**
+     * @param id an entity id
+     * @return true if the entity is in the store
+     */
+    public final boolean contains(int id)
+    {
+        return id >= 0 && id < nextid && slotof[id] >= 0;
+    }
+
+    /**
+     * @return how many entities are in the store
+     */
+    public final int size()
+    {
+        return count - dead;
+    }
+
+    /**
+     * Move every entity by its velocity. Call this once per frame (or per update with a fixed timestep).
+     */
+    public final void update()
+    {
+        for (int s = 0; s < count; s++)
+        {
+            x[s] += vx[s];
+            y[s] += vy[s];
+        }
+    }
+
+    /**
+     * Move every entity by its velocity times dt (e.g. with velocities in pixels per second and dt in seconds).
+     * @param dt how much time passed
+     */
+    public final void update(double dt)
+    {
+        for (int s = 0; s < count; s++)
+        {
+            x[s] += vx[s] * dt;
+            y[s] += vy[s] * dt;
+        }
+    }
+
+    /**
+     * Move every entity's animation on by one frame (it goes back to the first frame after the last one).
+     * Entities with a sprite from addAnimation don't need this, they are timed by the game clock.
+     */
+    public final void animate()
+    {
+        for (int s = 0; s < count; s++)
+        {
+            if (++frame[s] == Integer.MAX_VALUE)
+                frame[s] = 0;
+        }
+    }
+
+    /**
+     * Set where an entity is.
+     * @param id the entity
+     * @param x x position of its center
+     * @param y y position of its center
+     */
+    public final void setPosition(int id, double x, double y)
+    {
+        int s = slot(id);
+        this.x[s] = x;
+        this.y[s] = y;
+    }
+
+    /**
+     * @param id the entity
+     * @return x position of the entity's center
+     */
+    public final double getX(int id)
+    {
+        return x[slot(id)];
+    }
+
+    /**
+     * @param id the entity
+     * @return y position of the entity's center
+     */
+    public final double getY(int id)
+    {
+        return y[slot(id)];
+    }
+
+    /**
+     * Set how far an entity moves every update().
+     * @param id the entity
+     * @param vx x velocity
+     * @param vy y velocity
+     */
+    public final void setVelocity(int id, double vx, double vy)
+    {
+        int s = slot(id);
+        this.vx[s] = vx;
+        this.vy[s] = vy;
+    }
+
+    /**
+     * @param id the entity
+     * @return the entity's x velocity
+     */
+    public final double getVelocityX(int id)
+    {
+        return vx[slot(id)];
+    }
+
+    /**
+     * @param id the entity
+     * @return the entity's y velocity
+     */
+    public final double getVelocityY(int id)
+    {
+        return vy[slot(id)];
+    }
+
+    /**
+     * Set the depth of an entity, it works the same as GameObject.setDepth (higher depths are drawn further back).
+     * @param id the entity
+     * @param z the depth
+     */
+    public final void setDepth(int id, int z)
+    {
+        int s = slot(id);
+        if (depth[s] == z)
+            return;
+
+        depth[s] = z;
+        unsorted = true;
+    }
+
+    /**
+     * @param id the entity
+     * @return the depth of the entity
+     */
+    public final int getDepth(int id)
+    {
+        return depth[slot(id)];
+    }
+
+    /**
+     * Set which frame of its sprite's animation an entity shows. With a sprite from addAnimation this is
+     * the frame it would have started on when the game started, so it plays that far ahead of the others.
+     * @param id the entity
+     * @param f the frame (it wraps around past the last frame)
+     */
+    public final void setFrame(int id, int f)
+    {
+        if (f < 0)
+            throw new GoodSkyException("An entity's frame can't be negative");
+
+        frame[slot(id)] = f;
+    }
+
+    /**
+     * @param id the entity
+     * @return the frame of the entity
+     */
+    public final int getFrame(int id)
+    {
+        return frame[slot(id)];
+    }
+
+    /**
+     * Change the sprite an entity is drawn with.
+     * @param id the entity
+     * @param spriteid the sprite (from addSprite)
+     */
+    public final void setSprite(int id, int spriteid)
+    {
+        sprites.check(spriteid);
+        sprite[slot(id)] = spriteid;
+    }
+
+    /**
+     * @param id the entity
+     * @return the sprite id of the entity
+     */
+    public final int getSprite(int id)
+    {
+        return sprite[slot(id)];
+    }
+
+    /**
+     * Show or hide every entity in the store.
+     * @param v true to draw the entities, false to hide them
+     */
+    public final void setVisible(boolean v)
+    {
+        visible = v;
+    }
+
+    /**
+     * @return true if the entities are drawn
+     */
+    public final boolean isVisible()
+    {
+        return visible;
+    }
+
+    /**
+     * Remember where every entity is, so they can be drawn between updates (see gs.setFixedTimestep).
+     */
+    void savePrevious()
+    {
+        System.arraycopy(x, 0, prevx, 0, count);
+        System.arraycopy(y, 0, prevy, 0, count);
+    }
+
+    /**
+     * Get ready to draw a frame: clean out removed entities, put the rest in draw order and start the draw walk.
+     */
+    void beginDraw()
+    {
+        clean();
+        if (unsorted)
+            sort();
+        cursor = 0;
+    }
+
+    /**
+     * Go on with the draw walk, adding the entities that are drawn before anything at a depth to the list.
+     * @param list the draw list (its camera is used to skip entities that are off the screen)
+     * @param before draw the entities with a depth higher than this (Long.MIN_VALUE for all the rest)
+     * @param interpolate true to draw the entities between their last two updates
+     * @param alpha how far between the updates
+     */
+    void draw(DrawList list, long before, boolean interpolate, double alpha)
+    {
+        int left = list.camerax;
+        int top = list.cameray;
+        int right = list.camerax + list.width;
+        int bottom = list.cameray + list.height;
+        long now = gs.getGameTime();
+
+        while (cursor < count && depth[cursor] > before)
+        {
+            int s = cursor++;
+            if (!visible)
+                continue;
+
+            double ex = x[s];
+            double ey = y[s];
+            if (interpolate)
+            {
+                ex = prevx[s] + (ex - prevx[s]) * alpha;
+                ey = prevy[s] + (ey - prevy[s]) * alpha;
+            }
+
+            int sp = sprite[s];
+            int w = sprites.width[sp];
+            int h = sprites.height[sp];
+            int sx = (int)ex - w/2;
+            int sy = (int)ey - h/2;
+
+            if (sx < right && sx + w > left && sy < bottom && sy + h > top)
+            {
+                // sprites with an Animation show the frame for the game time, started from the entity's frame
+                int f = frame[s];
+                Animation anim = sprites.animation(sp);
+                if (anim != null)
+                    f = anim.getFrameAt(now + anim.getFrameStart(f % anim.getFrameCount()));
+
+                list.add(sprites.image(sp, f), sx - left, sy - top);
+            }
+        }
+    }
+
+    /**
+     * @return the slot of an entity
+     */
+    private int slot(int id)
+    {
+        if (id < 0 || id >= nextid || slotof[id] < 0)
+            throw new GoodSkyException("There is no entity " + id + " in this EntityStore");
+
+        return slotof[id];
+    }
+
+    /**
+     * Clean out the slots of removed entities, keeping the rest in the same order, and free their ids.
+     */
+    private void clean()
+    {
+        if (dead > 0)
+        {
+            int n = 0;
+            for (int s = 0; s < count; s++)
+            {
+                if (!alive[s])
+                    continue;
+
+                if (n != s)
+                    move(s, n);
+                n++;
+            }
+            count = n;
+            dead = 0;
+        }
+
+        while (deadcount > 0)
+            freeids[freecount++] = deadids[--deadcount];
+    }
+
+    /**
+     * Move the entity in one slot to another.
+     */
+    private void move(int from, int to)
+    {
+        x[to] = x[from];
+        y[to] = y[from];
+        vx[to] = vx[from];
+        vy[to] = vy[from];
+        prevx[to] = prevx[from];
+        prevy[to] = prevy[from];
+        depth[to] = depth[from];
+        frame[to] = frame[from];
+        sprite[to] = sprite[from];
+        alive[to] = true;
+        idof[to] = idof[from];
+        slotof[idof[to]] = to;
+    }
+
+    /**
+     * Put the entities in draw order. A merge sort keeps entities at the same depth in the order they
+     * were in, so the older ones are still drawn first.
+     */
+    private void sort()
+    {
+        for (int s = 0; s < count; s++)
+            perm[s] = s;
+
+        mergesort(0, count);
+
+        double[][] ds = { x, y, vx, vy, prevx, prevy };
+        for (double[] a : ds)
+        {
+            for (int s = 0; s < count; s++)
+                dscratch[s] = a[perm[s]];
+            System.arraycopy(dscratch, 0, a, 0, count);
+        }
+
+        int[][] is = { depth, frame, sprite, idof };
+        for (int[] a : is)
+        {
+            for (int s = 0; s < count; s++)
+                iscratch[s] = a[perm[s]];
+            System.arraycopy(iscratch, 0, a, 0, count);
+        }
+
+        for (int s = 0; s < count; s++)
+            slotof[idof[s]] = s;
+
+        unsorted = false;
+    }
+
+    /**
+     * Sort perm[from..to) by depth, deepest first.
+     */
+    private void mergesort(int from, int to)
+    {
+        if (to - from < 2)
+            return;
+
+        int mid = (from + to) >>> 1;
+        mergesort(from, mid);
+        mergesort(mid, to);
+
+        // already in order, nothing to merge
+        if (depth[perm[mid - 1]] >= depth[perm[mid]])
+            return;
+
+        int i = from;
+        int j = mid;
+        int k = from;
+        while (i < mid && j < to)
+            permtmp[k++] = depth[perm[j]] > depth[perm[i]] ? perm[j++] : perm[i++];
+        while (i < mid)
+            permtmp[k++] = perm[i++];
+        while (j < to)
+            permtmp[k++] = perm[j++];
+
+        System.arraycopy(permtmp, from, perm, from, to - from);
+    }
+
+    /**
+     * Make room for n entities.
+     */
+    private void allocate(int n)
+    {
+        x = grow(x, n);
+        y = grow(y, n);
+        vx = grow(vx, n);
+        vy = grow(vy, n);
+        prevx = grow(prevx, n);
+        prevy = grow(prevy, n);
+        depth = grow(depth, n);
+        frame = grow(frame, n);
+        sprite = grow(sprite, n);
+        idof = grow(idof, n);
+
+        boolean[] a = new boolean[n];
+        if (alive != null)
+            System.arraycopy(alive, 0, a, 0, count);
+        alive = a;
+
+        // every entity could be removed at once, so these need room for all of them
+        if (slotof == null)
+        {
+            slotof = new int[n];
+            freeids = new int[n];
+            deadids = new int[n];
+        }
+        else
+        {
+            freeids = grow(freeids, n);
+            deadids = grow(deadids, n);
+        }
+
+        perm = new int[n];
+        permtmp = new int[n];
+        dscratch = new double[n];
+        iscratch = new int[n];
+    }
+
+    private double[] grow(double[] a, int n)
+    {
+        double[] b = new double[n];
+        if (a != null)
+            System.arraycopy(a, 0, b, 0, count);
+        return b;
+    }
+
+    private int[] grow(int[] a, int n)
+    {
+        int[] b = new int[n];
+        if (a != null)
+            System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Timing information about the frames drawn by gs, so you can see where
+ * the time goes and when the game hitches.
+ */
+package goodsky;
+
+import java.util.Arrays;
+
+/**
+ * Remembers how long each part of every frame took. Get it with gs.getFrameStats().
+ *
+ * Each frame is split into phases: clearing the background, drawing the objects,
+ * drawing the text, flipping the buffer to the screen and sleeping to keep the FPS.
+ * PHASE_FRAME is the whole time from one sync() to the next (including your game code).
+ * For every phase you can ask for the typical time (p50), the time only 1 in 100 frames
+ * is slower than (p99) and the slowest time so far (max). All times are in milliseconds.
+ *
+ * The times are kept in histograms with buckets that get wider as the times get longer,
+ * so they use the same small amount of memory no matter how long the game runs. The
+ * percentiles are within about 6% of the real value. Recording costs a handful of
+ * System.nanoTime() calls per frame, so it is always on.
+ *
+ * The same numbers are also shown over JMX (e.g. in jconsole) as goodsky:type=FrameStats.
+ */
+public class FrameStats implements FrameStatsMBean
+{
+    /** Code for the time spent clearing the background */
+    public static final int PHASE_CLEAR = 0;
+    /** Code for the time spent drawing game objects */
+    public static final int PHASE_OBJECTS = 1;
+    /** Code for the time spent drawing text */
+    public static final int PHASE_TEXT = 2;
+    /** Code for the time spent getting the picture onto the screen */
+    public static final int PHASE_FLIP = 3;
+    /** Code for the time spent waiting to keep the FPS steady */
+    public static final int PHASE_SLEEP = 4;
+    /** Code for the whole frame, from one sync() to the next */
+    public static final int PHASE_FRAME = 5;
+
+    // How many phases there are
+    static final int PHASES = 6;
+
+    // Each power of 2 is split into this many buckets (as bits, 8 buckets)
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // Enough buckets for times up to about 2^40 ns (18 minutes), longer times go in the last one
+    private static final int BUCKETS = (40 - SUB_BITS + 1) * SUB_COUNT + SUB_COUNT;
+
+    // counts[phase][bucket] is how many frames fell in that bucket
+    private long[][] counts = new long[PHASES][BUCKETS];
+    private long[] max = new long[PHASES];
+    private long[] samples = new long[PHASES];
+
+    private long frames = 0;
+    private long overbudget = 0;
+    private int drawn = 0;
+    private int culled = 0;
+
+    /**
+     * Make empty stats. gs makes these for you.
+     */
+    FrameStats() { }
+
+    /**
+     * Record one frame.
+     * @param phase_ns time of each phase in ns (negative if the phase didn't run this frame)
+     * @param budget_ns how long a frame is allowed to take in ns (0 if there is no limit)
+     * @param drawn objects drawn this frame
+     * @param culled objects that were skipped this frame
+     */
+    synchronized void record(long[] phase_ns, long budget_ns, int drawn, int culled)
+    {
+        for (int p = 0; p < PHASES; p++)
+        {
+            long v = phase_ns[p];
+            if (v < 0)
+                continue;
+
+            counts[p][bucket(v)]++;
+            samples[p]++;
+            if (v > max[p])
+                max[p] = v;
+        }
+
+        frames++;
+
+        // Everything but the sleep is work, if that doesn't fit in a frame we missed our FPS
+        long work = phase_ns[PHASE_FRAME] - Math.max(0, phase_ns[PHASE_SLEEP]);
+        if (budget_ns > 0 && phase_ns[PHASE_FRAME] >= 0 && work > budget_ns)
+            overbudget++;
+
+        this.drawn = drawn;
+        this.culled = culled;
+    }
+
+    /**
+     * The time half of the frames took less than.
+     * @param phase which part of the frame. e.g. FrameStats.PHASE_OBJECTS
+     * @return time in milliseconds
+     */
+    public synchronized double getP50(int phase)
+    {
+        return getPercentile(phase, 50);
+    }
+
+    /**
+     * The time 99 out of 100 frames took less than. This shows you the hitches.
+     * @param phase which part of the frame. e.g. FrameStats.PHASE_FRAME
+     * @return time in milliseconds
+     */
+    public synchronized double getP99(int phase)
+    {
+        return getPercentile(phase, 99);
+    }
+
+    /**
+     * The slowest time so far.
+     * @param phase which part of the frame. e.g. FrameStats.PHASE_FLIP
+     * @return time in milliseconds
+     */
+    public synchronized double getMax(int phase)
+    {
+        check(phase);
+        return max[phase] / 1000000.0;
+    }
+
+    /**
+     * The time a percent of frames took less than.
+     * @param phase which part of the frame. e.g. FrameStats.PHASE_TEXT
+     * @param percent between 0 and 100
+     * @return time in milliseconds (0 if there are no frames yet)
+     */
+    public synchronized double getPercentile(int phase, double percent)
+    {
+        check(phase);
+
+        long n = samples[phase];
+        if (n == 0)
+            return 0;
+
+        // the sample we are looking for, counting from 1
+        long target = Math.max(1, (long)Math.ceil(n * percent / 100.0));
+
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            seen += counts[phase][b];
+            if (seen >= target)
+                return Math.min(middle(b), max[phase]) / 1000000.0;
+        }
+
+        return max[phase] / 1000000.0;
+    }
+
+    /**
+     * @return how many frames have been recorded
+     */
+    public synchronized long getFrameCount()
+    {
+        return frames;
+    }
+
+    /**
+     * @return how many frames took longer than the FPS allows (not counting the sleep)
+     */
+    public synchronized long getOverBudgetCount()
+    {
+        return overbudget;
+    }
+
+    /**
+     * @return how many objects were drawn last frame
+     */
+    public synchronized int getObjectsDrawn()
+    {
+        return drawn;
+    }
+
+    /**
+     * @return how many objects were skipped last frame (off the camera or invisible)
+     */
+    public synchronized int getObjectsCulled()
+    {
+        return culled;
+    }
+
+    /**
+     * Forget everything recorded so far, e.g. after loading a level.
+     */
+    public synchronized void reset()
+    {
+        for (int p = 0; p < PHASES; p++)
+        {
+            Arrays.fill(counts[p], 0);
+            max[p] = 0;
+            samples[p] = 0;
+        }
+
+        frames = 0;
+        overbudget = 0;
+    }
+
+    // The JMX attributes, one for each phase
+
+    public double getFrameP50() { return getP50(PHASE_FRAME); }
+    public double getFrameP99() { return getP99(PHASE_FRAME); }
+    public double getFrameMax() { return getMax(PHASE_FRAME); }
+    public double getClearP50() { return getP50(PHASE_CLEAR); }
+    public double getClearP99() { return getP99(PHASE_CLEAR); }
+    public double getClearMax() { return getMax(PHASE_CLEAR); }
+    public double getObjectsP50() { return getP50(PHASE_OBJECTS); }
+    public double getObjectsP99() { return getP99(PHASE_OBJECTS); }
+    public double getObjectsMax() { return getMax(PHASE_OBJECTS); }
+    public double getTextP50() { return getP50(PHASE_TEXT); }
+    public double getTextP99() { return getP99(PHASE_TEXT); }
+    public double getTextMax() { return getMax(PHASE_TEXT); }
+    public double getFlipP50() { return getP50(PHASE_FLIP); }
+    public double getFlipP99() { return getP99(PHASE_FLIP); }
+    public double getFlipMax() { return getMax(PHASE_FLIP); }
+    public double getSleepP50() { return getP50(PHASE_SLEEP); }
+    public double getSleepP99() { return getP99(PHASE_SLEEP); }
+    public double getSleepMax() { return getMax(PHASE_SLEEP); }
+
+    /**
+     * Make sure a phase code is real.
+     */
+    private static void check(int phase)
+    {
+        if (phase < 0 || phase >= PHASES)
+            throw new GoodSkyException("That isn't a frame phase. Use one of the FrameStats.PHASE_ codes.");
+    }
+
+    /**
+     * @return the bucket a time in ns falls in. Small times get their own bucket, after
+     * that every power of 2 is split into SUB_COUNT buckets.
+     */
+    private static int bucket(long v)
+    {
+        if (v < SUB_COUNT)
+            return (int)v;
+
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int b = (exp - SUB_BITS + 1) * SUB_COUNT + (int)((v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        return Math.min(b, BUCKETS - 1);
+    }
+
+    /**
+     * @return the time in the middle of a bucket in ns
+     */
+    private static long middle(int b)
+    {
+        if (b < SUB_COUNT)
+            return b;
+
+        int exp = b / SUB_COUNT + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        long low = (1L << exp) + (b % SUB_COUNT) * width;
+        return low + width / 2;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * What of FrameStats can be seen over JMX.
+ */
+package goodsky;
+
+/**
+ * The frame timing numbers shown over JMX (e.g. in jconsole under goodsky:type=FrameStats).
+ * All times are in milliseconds. See FrameStats for what each phase means.
+ */
+public interface FrameStatsMBean
+{
+    long getFrameCount();
+    long getOverBudgetCount();
+    int getObjectsDrawn();
+    int getObjectsCulled();
+
+    double getFrameP50();
+    double getFrameP99();
+    double getFrameMax();
+    double getClearP50();
+    double getClearP99();
+    double getClearMax();
+    double getObjectsP50();
+    double getObjectsP99();
+    double getObjectsMax();
+    double getTextP50();
+    double getTextP99();
+    double getTextMax();
+    double getFlipP50();
+    double getFlipP99();
+    double getFlipMax();
+    double getSleepP50();
+    double getSleepP99();
+    double getSleepMax();
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset();
+}
@@ -9,9 +9,7 @@ import java.awt.*;
 import java.io.*;
 import java.util.*;
 import java.awt.image.*;
-import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
-import javax.imageio.*;
 
 /**
  * The GameObject holds all information about objects that you want to move
@@ -37,22 +35,40 @@ public class GameObject implements Comparable<GameObject> {
     private int owidth;
     private int oheight;
 
-    // Frames and Animation
+    // Frames and Animation. The frame is worked out from the game clock when it's needed: animstart is
+    // the game time the animation would have started at to be on this frame now, nothing is counted
     private int frame = 0;
     private int oldframe = 0;
-    private int framedelay = 20;
-    private int framecounter = 0;
+    private long framedelay = 500000000L;
+    private long animstart = 0;
     private boolean animated = false;
+    private Animation animation = null;
 
     /** The x Position of the object on the screen */
     public double x = 0;
     /** The y Position of the object on the screen */
     public double y = 0;
+    // Position before the last fixed update, used to draw in between updates
+    /** Internal Field: Do not worry about this */
+    protected double prevx = 0;
+    /** Internal Field: Do not worry about this */
+    protected double prevy = 0;
+    /** Internal Field: Do not worry about this */
+    protected boolean hasprev = false;
+
     /** Internal Field: Do not worry about this */
     protected int depth = 10;
     /** Internal Field: Do not worry about this */
     protected boolean visible = true;
 
+    // Where this object was last drawn on the screen (used by dirty rectangle drawing)
+    /** Internal Field: Do not worry about this */
+    protected boolean drawn = false;
+    /** Internal Field: Do not worry about this */
+    protected BufferedImage drawnimage = null;
+    /** Internal Field: Do not worry about this */
+    protected int drawnx, drawny, drawnw, drawnh;
+
     /** Internal Field: Do not worry about this */
     protected int boundwidth;
     /** Internal Field: Do not worry about this */
@@ -68,6 +84,18 @@ public class GameObject implements Comparable<GameObject> {
     private double oldyScale = yScale;
     private double oldangle = angle;
 
+    // The transformation the bounding box was last worked out for
+    private double boundxScale = Double.NaN;
+    private double boundyScale = Double.NaN;
+    private double boundangle = Double.NaN;
+    private int boundowidth = -1;
+    private int boundoheight = -1;
+    private int boundsteps = -1;
+
+    // When this object was added to the render list, used to keep draw order stable
+    /** Internal Field: Do not worry about this */
+    protected long order;
+
     // These are for manual bounding
     // Negative numbers means we will default to the auto-generated bounding values
     private int boxcolwidth = -1;
@@ -84,9 +112,41 @@ public class GameObject implements Comparable<GameObject> {
     private boolean platformSlideMode = true;
     private double maxSlopeYunit = 0.95;
 
+    // How many surfaces a swept slide can run into in one call, and how far it steps off each one
+    private static final int SLIDE_PASSES = 4;
+    private static final double SLIDE_GAP = 0.5;
+
     // Your collisionGroup
     protected int collisionGroup = -1;
 
+    // The last ray cast that checked this object (so a cast checks each object once)
+    int raycast = 0;
+
+    // Which way the surface faced at the last sweepCollisionCircle hit
+    private double normalx = 0;
+    private double normaly = 0;
+
+    // The objects a sweep is checking, their distance fields and where the fields are (reused by every sweep)
+    private static GameObject[] sweepobjs = new GameObject[16];
+    private static DistanceField[] sweepfields = new DistanceField[16];
+    private static int[] sweepleft = new int[16];
+    private static int[] sweeptop = new int[16];
+    private static double[] sweepreach = new double[16];
+
+    // Points around the front half of a unit circle (facing right) for the circle casts, worked out once
+    // for each number of points. The 'span' points go from side to side, the 'fan' points stop a step short.
+    private static int tablepoints = 0;
+    private static double[] spanangle, spancos, spansin;
+    private static double[] fanangle, fancos, fansin;
+
+    // The points of the circle a cast is checking and the angle of each one (reused by every cast)
+    private static double[] circlex = new double[16];
+    private static double[] circley = new double[16];
+    private static double[] checkangle = new double[16];
+
+    // Which points of the circle hit something, for the slide normal (reused by every slide)
+    private static boolean[] anglehit = new boolean[16];
+
     /**
      *  Constructor method for all Game Objects.
      *  Automatically adds this object to the queue in GoodSky.
@@ -131,10 +191,13 @@ public class GameObject implements Comparable<GameObject> {
     {
         try {
             originalimage.clear();
-            originalimage.add(ImageIO.read(new File(filename)));
+            originalimage.add(AssetCache.getImage(filename));
+            image = null;
+            animation = null;
             
             owidth = originalimage.get(0).getWidth();
             oheight = originalimage.get(0).getHeight();
+            gs.resizeObject(this);
         } catch (IOException e) {
             throw new GoodSkyException("BUMMER! I couldn't load the image file for a GameObject! Make sure you typed the file name correctly!");
         }
@@ -155,24 +218,55 @@ public class GameObject implements Comparable<GameObject> {
     {
         try {
             originalimage.clear();
+            image = null;
+            animation = null;
 
-            BufferedImage fullimage = ImageIO.read(new File(filename));
-            
-            for (int i = 0; i < frames; i++)
-            {
-                if (i*height > fullimage.getHeight() || width > fullimage.getWidth())
-                    throw new GoodSkyException("Error loading the animation image. Are you trying to load too many images? Or is your height or width too large?");
-                
-                originalimage.add(fullimage.getSubimage(0, i*height, width, height));
-            }
+            // The frames are shared with every other object using the same file
+            for (BufferedImage f : AssetCache.getFrames(filename, width, height, frames))
+                originalimage.add(f);
 
             owidth = width;
             oheight = height;
+            gs.resizeObject(this);
         } catch (IOException e) {
             throw new GoodSkyException("BUMMER! I couldn't load the image file for a GameObject! Make sure you typed the file name correctly!");
         }
     }
 
+    /**
+     * Play an animation on this object. Lots of objects can play the same Animation, they each start
+     * it from the first frame when this is called.
+     *
+     * @param anim the animation to play
+     */
+    public final void setAnimation(Animation anim)
+    {
+        if (anim == null)
+            throw new GoodSkyException("You can't play a null Animation, make one first");
+
+        originalimage.clear();
+        for (BufferedImage f : anim.frames())
+            originalimage.add(f);
+        image = null;
+        animation = anim;
+
+        owidth = originalimage.get(0).getWidth();
+        oheight = originalimage.get(0).getHeight();
+        gs.resizeObject(this);
+
+        frame = 0;
+        animated = true;
+        animstart = gs.getGameTime();
+    }
+
+    /**
+     * @return the Animation this object is playing (from setAnimation), or null if it isn't playing one
+     */
+    public final Animation getAnimation()
+    {
+        return animation;
+    }
+
     /**
      * If you don't want/need to use a file image for a GameObject
      * you can alternatively just set its shape.
@@ -187,24 +281,41 @@ public class GameObject implements Comparable<GameObject> {
         oheight = size;
 
         originalimage.clear();
-        originalimage.add(new BufferedImage(owidth, oheight, BufferedImage.TYPE_INT_ARGB));
-        Graphics g = originalimage.get(0).getGraphics();
+        originalimage.add(shapeImage(shape, size, c));
+        image = null;
+        animation = null;
+
+        gs.resizeObject(this);
+    }
+
+    /**
+     * Draw a shape on a new image.
+     * @param shape the shape. e.g. gs.CIRCLE
+     * @param size the size (in pixels) of the shape
+     * @param c the color of the shape
+     * @return the image
+     */
+    static BufferedImage shapeImage(int shape, int size, Color c)
+    {
+        BufferedImage img = CompatibleImages.create(size, size, Transparency.BITMASK);
+        Graphics g = img.getGraphics();
 
         g.setColor(c);
 
         if (shape == gs.TRIANGLE)
         {
             int pad = (int)Math.ceil((1-3/(2*Math.sqrt(3)))*size)/2;
-            int[] xpts = {0 + pad, owidth - pad, owidth/2};
-            int[] ypts = {oheight - size/4, oheight - size/4, 0};
+            int[] xpts = {0 + pad, size - pad, size/2};
+            int[] ypts = {size - size/4, size - size/4, 0};
             g.fillPolygon(xpts, ypts, 3);
         }
         else if (shape == gs.SQUARE)
-            g.fillRect(0, 0, owidth, oheight);
+            g.fillRect(0, 0, size, size);
         else
-            g.fillOval(0, 0, owidth, oheight);
+            g.fillOval(0, 0, size, size);
 
         g.dispose();
+        return img;
     }
     /**
      * Alternative version of setting the shape without color
@@ -229,15 +340,16 @@ public class GameObject implements Comparable<GameObject> {
             throw new GoodSkyException("You have not set this object's image! (it's hard to render when it doens't exist");
         }
         
-        // First let's check on the frame animation if applicable
-        if (animated)
-        {
-            if (framecounter++ >= framedelay)
-            {
-                framecounter = 0;
-                frame = (frame+1)%originalimage.size();
-            }
-        }
+        return transformedImage();
+    }
+
+    /**
+     * The image turned and scaled the way the object is right now, on the frame the animation is on.
+     * @return the adjusted image
+     */
+    private BufferedImage transformedImage()
+    {
+        updateFrame();
 
         // used for double comparisons
         double alpha = 0.000001;
@@ -248,48 +360,46 @@ public class GameObject implements Comparable<GameObject> {
                  yScale > oldyScale - alpha && yScale < oldyScale + alpha &&
                  angle  > oldangle  - alpha && angle  < oldangle  + alpha))
         {
-            // Create the new empty image
-            image = new BufferedImage(boundwidth, boundheight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D gtemp = (Graphics2D)image.getGraphics();
-
-            // If we are at the original scale and rotation then don't do any transformations
-            if (xScale == 1.0 && yScale == 1.0 && angle == 0.0)
-            {
-                gtemp.drawImage(originalimage.get(frame), 0, 0, null);
-            }
-            // If we have transformations to do, then draw them
-            else
-            {
-                // prep the more complex transformation
-                AffineTransform tx = new AffineTransform();
-
-                // rotate the image
-                tx.rotate(angle, image.getWidth()/2, image.getHeight()/2);
-
-                // Move it to the appropriate spot of the rotation
-                tx.translate((boundwidth - (owidth*xScale))/2, (boundheight - (oheight*yScale))/2);
+            // Get the turned and scaled image, objects with the same image share these
+            updateBound();
+            image = TransformCache.get(originalimage.get(frame), TransformCache.quantizeAngle(angle),
+                    TransformCache.quantizeScale(xScale), TransformCache.quantizeScale(yScale), boundwidth, boundheight);
 
-                // First scale the image so it fits into our new box
-                tx.scale(xScale, yScale);
-
-                // Draw the final image with translations and everything
-                gtemp.drawImage(originalimage.get(frame), tx, null);
-            }
-            
             // Store these transforms so we know next iteration
             oldxScale = xScale;
             oldyScale = yScale;
             oldangle = angle;
             oldframe = frame;
-
-            // stop the graphics
-            gtemp.dispose();
         }
 
         // return the image
         return image;
     }
 
+    /**
+     * Work out which frame the animation is on from the game clock.
+     */
+    private void updateFrame()
+    {
+        if (!animated || originalimage.isEmpty())
+            return;
+
+        long t = gs.getGameTime() - animstart;
+        if (animation != null)
+            frame = animation.getFrameAt(t);
+        else
+            frame = (int)((Math.max(0, t) / framedelay) % originalimage.size());
+    }
+
+    /**
+     * Move the animation's start so it is on the current frame right now.
+     */
+    private void restartFrame()
+    {
+        long into = animation != null ? animation.getFrameStart(frame) : frame * framedelay;
+        animstart = gs.getGameTime() - into;
+    }
+
     /**
      * Protected function updates the bounding box around the object.
      * This neat little function is used by both collision and
@@ -297,6 +407,24 @@ public class GameObject implements Comparable<GameObject> {
      */
     protected final void updateBound()
     {
+        // Nothing changed since last time
+        int steps = TransformCache.getSteps();
+        if (xScale == boundxScale && yScale == boundyScale && angle == boundangle &&
+                owidth == boundowidth && oheight == boundoheight && steps == boundsteps)
+            return;
+
+        boundxScale = xScale;
+        boundyScale = yScale;
+        boundangle = angle;
+        boundowidth = owidth;
+        boundoheight = oheight;
+        boundsteps = steps;
+
+        // The image is drawn at the rounded angle and scale (see TransformCache), so the bound has to match
+        double xScale = TransformCache.quantizeScale(this.xScale);
+        double yScale = TransformCache.quantizeScale(this.yScale);
+        double angle = TransformCache.quantizeAngle(this.angle);
+
         // Only do the more intense math if needed
         if (xScale == 1.0 && yScale == 1.0 && angle == 0.0)
         {
@@ -319,6 +447,47 @@ public class GameObject implements Comparable<GameObject> {
         }
     }
 
+    /**
+     * @return which pixels of the object's image are solid, as it is turned and scaled right now
+     */
+    CollisionMask mask()
+    {
+        return CollisionMask.get(transformedImage());
+    }
+
+    /**
+     * Find out how far a point is from the nearest solid pixel of this object (never more than the real distance).
+     * @param px x of the point in the world
+     * @param py y of the point in the world
+     * @return the room around the point, negative if it is inside the object
+     */
+    double clearance(double px, double py)
+    {
+        updateBound();
+        if (originalimage.isEmpty())
+            return Double.POSITIVE_INFINITY;
+
+        return mask().field().clearance(px - ((int)x - boundwidth/2), py - ((int)y - boundheight/2));
+    }
+
+    /**
+     * Find out how many steps of a circle cast can't possibly touch this object.
+     * A point of the circle only hits a pixel if it rounds to it, so it has to come within half a pixel diagonal.
+     * @param cx x of the circle's center now
+     * @param cy y of the circle's center now
+     * @param radius radius of the circle
+     * @param step how far the center moves each step
+     * @return how many steps (starting with this one) can be skipped, 0 if this one has to be checked
+     */
+    int clearSteps(double cx, double cy, double radius, double step)
+    {
+        double room = clearance(cx, cy) - Math.abs(radius) - DistanceField.HALF_DIAGONAL - 0.001;
+        if (room <= 0)
+            return 0;
+
+        return (int)Math.min(room / step, Integer.MAX_VALUE - 1) + 1;
+    }
+
     /**
      * This function will set the bounding box used for collision to constant values.
      * The box is centered at the very center of the image. NOTE: when you use this
@@ -397,43 +566,16 @@ public class GameObject implements Comparable<GameObject> {
         }
         else if (type == gs.COL_PIXEL)
         {
+            updateBound();
+            obj.updateBound();
+
             // Check if we are within their bounding box
-            if (image != null && dx < boundwidth/2 + obj.boundwidth/2 && dy < boundheight/2 + obj.boundheight/2)
+            if (!originalimage.isEmpty() && !obj.originalimage.isEmpty() &&
+                    dx < boundwidth/2 + obj.boundwidth/2 && dy < boundheight/2 + obj.boundheight/2)
             {
-                // we need signs in our deltas now
-                dx = (int)(x - obj.x);
-                dy = (int)(y - obj.y);
-
-                // Find our area of interest relative to this object
-                int dx1 = Math.max(0, boundwidth/2 - obj.width()/2 - dx);
-                int dx2 = Math.min(boundwidth, boundwidth/2 + obj.width()/2 - dx);
-
-                int dy1 = Math.max(0, boundheight/2 - obj.height()/2 - dy);
-                int dy2 = Math.min(boundheight, boundheight/2 + obj.height()/2 - dy);
-
-                BufferedImage regioncheck1 = image.getSubimage(dx1, dy1, dx2 - dx1, dy2 - dy1);
-
-                // Find our area of interest relative to the other object
-                dx = (int)(obj.x - x);
-                dy = (int)(obj.y - y);
-
-                dx1 = Math.max(0, obj.width()/2 - boundwidth/2 - dx);
-                dx2 = Math.min(obj.width(), obj.width()/2 + boundwidth/2 - dx);
-
-                dy1 = Math.max(0, obj.height()/2 - boundheight/2 - dy);
-                dy2 = Math.min(obj.height(), obj.height()/2 + boundheight/2 - dy);
-
-                BufferedImage regioncheck2 = obj.image.getSubimage(dx1, dy1, dx2 - dx1, dy2 - dy1);
-
-                // Check for collision now
-                for (int i = 0; i < dx2 - dx1; i += 3)
-                {
-                    for (int j = 0; j < dy2 - dy1; j += 3)
-                    {
-                        if ((regioncheck1.getRGB(i, j) >> 24 & 0xff) != 0 && (regioncheck2.getRGB(i, j) >> 24 & 0xff) != 0)
-                            return true;
-                    }
-                }
+                // Line up the solid pixels of both images where they are drawn and check them 64 at a time
+                return CollisionMask.overlap(mask(), (int)x - boundwidth/2, (int)y - boundheight/2,
+                        obj.mask(), (int)obj.x - obj.boundwidth/2, (int)obj.y - obj.boundheight/2);
             }
             else
                 return false;
@@ -486,11 +628,12 @@ public class GameObject implements Comparable<GameObject> {
             // Check if we are within their bounding box
             // This is a necessary comment:
             // omg... this is so much easier than two sprites overlapping xD
-            if (image != null && posx > x - boundwidth/2 && posx < x + boundwidth/2
+            updateBound();
+            if (!originalimage.isEmpty() && posx > x - boundwidth/2 && posx < x + boundwidth/2
                     && posy > y - boundheight/2 && posy < y + boundheight/2)
             {
-                if ((image.getRGB((int)(posx - x + boundwidth/2), (int)(posy - y + boundheight/2)) >> 24 & 0xff) != 0)
-                    return true;
+                // one bit of the collision mask, where the image is drawn
+                return mask().get(posx - ((int)x - boundwidth/2), posy - ((int)y - boundheight/2));
             }
             else
                 return false;
@@ -510,6 +653,7 @@ public class GameObject implements Comparable<GameObject> {
     public final void setCollisionOn(boolean onOff)
     {
         collisionOn = onOff;
+        gs.collideObject(this);
     }
 
     /**
@@ -520,12 +664,87 @@ public class GameObject implements Comparable<GameObject> {
     public final void setCollisionGroup(int group)
     {
         collisionGroup = group;
+        gs.collideObject(this);
+    }
+
+    /**
+     * Find the collision objects of a group that could be touched when moving a circle from here by dx, dy.
+     * The casts step one pixel at a time and may overshoot the end by a step, so the area is padded a little.
+     */
+    private ArrayList<GameObject> sweep(double dx, double dy, double radius, int group)
+    {
+        double pad = Math.abs(radius) + 2;
+        return gs.collisionQuery(group, Math.min(x, x + dx) - pad, Math.min(y, y + dy) - pad, Math.max(x, x + dx) + pad, Math.max(y, y + dy) + pad);
+    }
+
+    /**
+     * Work out the points of the circle a cast checks, turned to face the way it moves
+     * (into circlex, circley and checkangle).
+     * @param ang the angle of movement
+     * @param radius radius of the circle
+     * @param n how many points to check
+     * @param span true to go all the way from one side to the other, false to stop a step short
+     */
+    private static void circlePoints(double ang, double radius, int n, boolean span)
+    {
+        if (n != tablepoints)
+            circleTables(n);
+
+        double[] angle = span ? spanangle : fanangle;
+        double[] cos = span ? spancos : fancos;
+        double[] sin = span ? spansin : fansin;
+
+        // turn the unit points by the angle of movement
+        double c = Math.cos(ang);
+        double s = Math.sin(ang);
+        for (int i = 0; i < n; i++)
+        {
+            circlex[i] = radius*(c*cos[i] - s*sin[i]);
+            circley[i] = radius*(s*cos[i] + c*sin[i]);
+            checkangle[i] = ang + angle[i];
+        }
+    }
+
+    /**
+     * Work out the unit circle points for casts checking n points.
+     */
+    private static void circleTables(int n)
+    {
+        spanangle = new double[n];
+        spancos = new double[n];
+        spansin = new double[n];
+        fanangle = new double[n];
+        fancos = new double[n];
+        fansin = new double[n];
+
+        for (int i = 0; i < n; i++)
+        {
+            spanangle[i] = n > 1 ? -Math.PI/2 + i*Math.PI/(n - 1) : -Math.PI/2;
+            spancos[i] = Math.cos(spanangle[i]);
+            spansin[i] = Math.sin(spanangle[i]);
+
+            fanangle[i] = -Math.PI/2 + i*Math.PI/n;
+            fancos[i] = Math.cos(fanangle[i]);
+            fansin[i] = Math.sin(fanangle[i]);
+        }
+
+        if (circlex.length < n)
+        {
+            circlex = new double[n];
+            circley = new double[n];
+            checkangle = new double[n];
+            anglehit = new boolean[n];
+        }
+
+        tablepoints = n;
     }
 
     /**
      * Try to move the object the amount specified in the x and y direction with a circle collision bound. If a collision
      * occurs then the object will move as close as it can to the object. This function only checks against objects in the particular group
-     * NOTE: This works best with small movements (i.e. keyboard movement).
+     * NOTE: This works best with small movements (i.e. keyboard movement). It steps a pixel at a time, so a big
+     * movement can skip right through a thin object. gs.setSweptCollision(true) makes it sweep instead, or use
+     * sweepCollisionCircleGroup.
      * @param dx amount to move in the x direction
      * @param dy amount to move in the y direction
      * @param radius radius you wish to use around the object
@@ -537,25 +756,18 @@ public class GameObject implements Comparable<GameObject> {
         // check for the case of 0, 0
         if (Math.abs(dx) < 0.000001 && Math.abs(dy) < 0.000001) return false;
 
+        if (gs.isSweptCollision())
+            return moveSwept(dx, dy, radius, group);
+
         // is there a collision
         boolean isCollision = false;
 
         // angle of movement
         double ang = Math.atan2(dy, dx);
-        double tang = ang - (Math.PI/2);
-        double dang = Math.PI/(collisionIterations - 1);
 
         // generate the values for our circle casting
-        double[] circlex = new double[collisionIterations];
-        double[] circley = new double[collisionIterations];
-        
-        for (int i = 0; i < collisionIterations; i++)
-        {
-            circlex[i] = radius*Math.cos(tang);
-            circley[i] = radius*Math.sin(tang);
-            tang += dang;
-        }
-        
+        circlePoints(ang, radius, collisionIterations, true);
+
         // the step of each check
         double idx = Math.cos(ang);
         double idy = Math.sin(ang);
@@ -573,11 +785,15 @@ public class GameObject implements Comparable<GameObject> {
         if (dx <= 0 && idx < dx) idx = dx + 0.0000001;
         if (dy >= 0 && idy > dy) idy = dy - 0.0000001;
         if (dy <= 0 && idy < dy) idy = dy + 0.0000001;
+        double step = Math.sqrt(idx*idx + idy*idy);
 
         // check for collision points around our final location
-        // Check each game object
-        for (GameObject obj : gs.base.objects)
+        // Check each collision object near the path
+        ArrayList<GameObject> near = sweep(dx, dy, radius, group);
+        for (int k = 0; k < near.size(); k++)
         {
+            GameObject obj = near.get(k);
+
             // if this is not a collision object, then don't worry!
             if (!obj.collisionOn) continue;
             // See if it is in my group
@@ -588,8 +804,20 @@ public class GameObject implements Comparable<GameObject> {
             ty = idy;
 
             // iterate out from the start point to the end point
+            int skip = 0;
             while (!isCollision && ((dx >= 0 && tx <= maxdx) || (dx <= 0 && tx >= maxdx)) && ((dy >= 0 && ty <= maxdy) || (dy <= 0 && ty >= maxdy)))
             {
+                // too far from the object for any point of the circle to touch it, just step on
+                if (skip == 0)
+                    skip = obj.clearSteps(x + tx, y + ty, radius, step);
+                if (skip > 0)
+                {
+                    skip--;
+                    tx += idx;
+                    ty += idy;
+                    continue;
+                }
+
                 // check each point around the circle
                 for (int i = 0; i < collisionIterations; i++)
                 {
@@ -621,7 +849,9 @@ public class GameObject implements Comparable<GameObject> {
     /**
      * Try to move the object the amount specified in the x and y direction with a circle collision bound. If a collision
      * occurs then the object will move as close as it can to the object.
-     * NOTE: This works best with small movements (i.e. keyboard movement).
+     * NOTE: This works best with small movements (i.e. keyboard movement). It steps a pixel at a time, so a big
+     * movement can skip right through a thin object. gs.setSweptCollision(true) makes it sweep instead, or use
+     * sweepCollisionCircleGroup.
      * @param dx amount to move in the x direction
      * @param dy amount to move in the y direction
      * @param radius radius you wish to use around the object
@@ -644,7 +874,9 @@ public class GameObject implements Comparable<GameObject> {
     /**
      * Try to move the object the amount specified in the x and y direction with a circle collision bound. If a collision
      * occurs then the object will slide along the collision normal
-     * NOTE: This works best with small movements (i.e. keyboard movement).
+     * NOTE: This works best with small movements (i.e. keyboard movement). It steps a pixel at a time, so a big
+     * movement can skip right through a thin object. gs.setSweptCollision(true) makes it sweep instead, or use
+     * sweepCollisionCircleGroup.
      * @param dx amount to move in the x direction
      * @param dy amount to move in the y direction
      * @param radius radius you wish to use around the object
@@ -656,29 +888,21 @@ public class GameObject implements Comparable<GameObject> {
         // check for the case of 0, 0
         if (Math.abs(dx) < 0.000001 && Math.abs(dy) < 0.000001) return false;
 
+        if (gs.isSweptCollision())
+            return slideSwept(dx, dy, radius, group);
+
         // is there a collision?
         boolean isCollision = false;
 
         // angle of movement
         double ang = Math.atan2(dy, dx);
-        double tang = ang - (Math.PI/2);
-        double dang = Math.PI/(collisionIterations - 1); // lol dang
 
         // generate the values for our circle casting
-        double[] checkangle = new double[collisionIterations];
-        double[] circlex = new double[collisionIterations];
-        double[] circley = new double[collisionIterations];
+        circlePoints(ang, radius, collisionIterations, true);
 
+        // mark which points of the circle collide (it will be used to get the collision normal)
         for (int i = 0; i < collisionIterations; i++)
-        {
-            checkangle[i] = tang;
-            circlex[i] = radius*Math.cos(tang);
-            circley[i] = radius*Math.sin(tang);
-            tang += dang;
-        }
-
-        // create a set to store the collision angles (it will be used to get the collision normal)
-        Set<Double> angleSet = new HashSet<Double>();
+            anglehit[i] = false;
 
         // Create the 'max' distance to check. We only need to check out to the first collision
         double maxdx = dx;
@@ -697,40 +921,59 @@ public class GameObject implements Comparable<GameObject> {
         if (dx <= 0 && idx < dx) idx = dx + 0.0000001;
         if (dy >= 0 && idy > dy) idy = dy - 0.0000001;
         if (dy <= 0 && idy < dy) idy = dy + 0.0000001;
+        double step = Math.sqrt(idx*idx + idy*idy);
 
         // check for collision points around our final location
-        // Check each game object
-        for (GameObject obj : gs.base.objects)
+        // Check each collision object near the path
+        GameObject checked = null;
+        ArrayList<GameObject> near = sweep(dx, dy, radius, group);
+        for (int k = 0; k < near.size(); k++)
         {
+            GameObject obj = near.get(k);
+
             // if this is not a collision object, then don't worry!
             if (!obj.collisionOn) continue;
             // See if it is in my group
             if (group != -1 && obj.collisionGroup != group) continue;
+            checked = obj;
 
             // reset the start position
             tx = idx;
             ty = idy;
 
             // iterate out from the start point to the end point
+            int skip = 0;
             while (!isCollision && ((dx >= 0 && tx <= maxdx + 0.0000001) || (dx <= 0 && tx >= maxdx - 0.0000001)) && ((dy >= 0 && ty <= maxdy + 0.0000001) || (dy <= 0 && ty >= maxdy - 0.0000001)))
             {
+                // too far from the object for any point of the circle to touch it, just step on
+                if (skip == 0)
+                    skip = obj.clearSteps(x + tx, y + ty, radius, step);
+                if (skip > 0)
+                {
+                    skip--;
+                    tx += idx;
+                    ty += idy;
+                    continue;
+                }
+
                 // check each point around the circle
                 for (int i = 0; i < collisionIterations; i++)
                 {
                     // collision at a certain point
                     if (obj.isOverlapPoint((int)Math.round(x + tx + circlex[i]), (int)Math.round(y + ty + circley[i]), gs.COL_PIXEL))
                     {
-                        // set maxdx and maxdy no further than what we are at and reset the angleSet
+                        // set maxdx and maxdy no further than what we are at and forget the earlier hits
                         // This reset only needs to happen if we ARE BEFORE THE CURRENT MAXDX and MAXDY
                         if ((tx == 0 || (dx >= 0 && tx < maxdx) || (dx <= 0 && tx > maxdx)) && (ty == 0 || (dy >= 0 && ty < maxdy) || (dy <= 0 && ty > maxdy)))
                         {
                             maxdx = tx;
                             maxdy = dy;
-                            angleSet.clear();
+                            for (int j = 0; j < collisionIterations; j++)
+                                anglehit[j] = false;
                         }
 
-                        // Add this collision to the angle Set
-                        angleSet.add(checkangle[i]);
+                        // Remember this point of the circle collided
+                        anglehit[i] = true;
 
                         // Oh btw: there is a collision
                         isCollision = true;
@@ -743,19 +986,40 @@ public class GameObject implements Comparable<GameObject> {
             }
         }
 
+        // Where we stopped stepping is where the last object in the group (in draw order) stopped us.
+        // If it was too far away to be checked, step through it as if it was checked and missed.
+        GameObject last = gs.lastCollisionObject(group);
+        if (last != null && last != checked)
+        {
+            tx = idx;
+            ty = idy;
+            while (!isCollision && ((dx >= 0 && tx <= maxdx + 0.0000001) || (dx <= 0 && tx >= maxdx - 0.0000001)) && ((dy >= 0 && ty <= maxdy + 0.0000001) || (dy <= 0 && ty >= maxdy - 0.0000001)))
+            {
+                tx += idx;
+                ty += idy;
+            }
+        }
+
         // Evaluate the normal
         // Then slide! (if necessary)
         double normal;
 
         if (isCollision)
         {
-            // Add up all the values (@-@ Hash Set!!!)
+            // Add up the angles of the points that collided
             double sum = 0;
-            Iterator<Double> e = angleSet.iterator();
-            while (e.hasNext()) sum += e.next();
+            int hits = 0;
+            for (int i = 0; i < collisionIterations; i++)
+            {
+                if (anglehit[i])
+                {
+                    sum += checkangle[i];
+                    hits++;
+                }
+            }
 
             // get the average, that is my normal :P
-            normal = sum/angleSet.size();
+            normal = sum/hits;
 
             // If we are doing a platformer, ignore collisions above about waist level
             if (platformSlideMode)
@@ -794,7 +1058,7 @@ public class GameObject implements Comparable<GameObject> {
             ty += (resultMagnitude * unitnormy);
 
             //System.out.println("tx: " + tx + " dx: " + dx + " maxdx: " + maxdx);
-            //System.out.println(" Collisions: " + angleSet.size() +  " normal: " + normal + " unit x: " + unitnormx + " unit y: " + unitnormy + " result Magnitude: " + resultMagnitude);
+            //System.out.println(" Collisions: " + hits +  " normal: " + normal + " unit x: " + unitnormx + " unit y: " + unitnormy + " result Magnitude: " + resultMagnitude);
         }
         else
         {
@@ -812,7 +1076,9 @@ public class GameObject implements Comparable<GameObject> {
     /**
      * Try to move the object the amount specified in the x and y direction with a circle collision bound. If a collision
      * occurs then the object will slide along the collision normal
-     * NOTE: This works best with small movements (i.e. keyboard movement).
+     * NOTE: This works best with small movements (i.e. keyboard movement). It steps a pixel at a time, so a big
+     * movement can skip right through a thin object. gs.setSweptCollision(true) makes it sweep instead, or use
+     * sweepCollisionCircleGroup.
      * @param dx amount to move in the x direction
      * @param dy amount to move in the y direction
      * @param radius radius you wish to use around the object
@@ -823,6 +1089,78 @@ public class GameObject implements Comparable<GameObject> {
         return slideCollisionCircleGroup(dx, dy, radius, -1);
     }
 
+    /**
+     * moveCollisionCircleGroup with the distance field sweep: move up to where the circle touches something.
+     */
+    private boolean moveSwept(double dx, double dy, double radius, int group)
+    {
+        double t = sweepCollisionCircleGroup(dx, dy, radius, group);
+        if (t < 0)
+        {
+            x += dx;
+            y += dy;
+            return false;
+        }
+
+        double length = Math.sqrt(dx*dx + dy*dy);
+        x += dx/length*t;
+        y += dy/length*t;
+        return true;
+    }
+
+    /**
+     * slideCollisionCircleGroup with the distance field sweep: move up to where the circle touches something, then
+     * keep going with what is left of the movement along the surface (the part going into it is taken off).
+     * Sliding can run into another surface, e.g. in a corner, so this goes around a few times.
+     */
+    private boolean slideSwept(double dx, double dy, double radius, int group)
+    {
+        boolean isCollision = false;
+
+        for (int pass = 0; pass < SLIDE_PASSES; pass++)
+        {
+            double t = sweepCollisionCircleGroup(dx, dy, radius, group);
+            if (t < 0)
+            {
+                x += dx;
+                y += dy;
+                break;
+            }
+
+            isCollision = true;
+            double length = Math.sqrt(dx*dx + dy*dy);
+            x += dx/length*t;
+            y += dy/length*t;
+
+            // what is left of the movement, without the part going into the surface
+            double rx = dx * (1 - t/length);
+            double ry = dy * (1 - t/length);
+            double into = rx*normalx + ry*normaly;
+            if (into < 0)
+            {
+                rx -= into*normalx;
+                ry -= into*normaly;
+            }
+
+            double left = Math.sqrt(rx*rx + ry*ry);
+            if (left < 0.000001)
+                break;
+
+            // don't slide up anything steeper than the max slope in platform mode
+            if (platformSlideMode && ry/left < maxSlopeYunit * -1)
+                break;
+
+            // step off the surface a little so the next sweep doesn't start out touching it
+            x += normalx * SLIDE_GAP;
+            y += normaly * SLIDE_GAP;
+
+            dx = rx;
+            dy = ry;
+        }
+
+        return isCollision;
+    }
+
     /**
      * Returns if there is a collision at the hypothetical dx and dy without actually moving the object.
      * @param dx amount to move in the x direction
@@ -841,18 +1179,9 @@ public class GameObject implements Comparable<GameObject> {
 
         // angle of movement
         double ang = Math.atan2(dy, dx);
-        double tang = ang - (Math.PI/2);
-        double dang = Math.PI/collisionIterations;
 
         // generate the values for our circle casting
-        double[] circlex = new double[collisionIterations];
-        double[] circley = new double[collisionIterations];
-        for (int i = 0; i < collisionIterations; i++)
-        {
-            circlex[i] = radius*Math.cos(tang);
-            circley[i] = radius*Math.sin(tang);
-            tang += dang;
-        }
+        circlePoints(ang, radius, collisionIterations, false);
 
         // the step of each check
         double idx = Math.cos(ang);
@@ -871,11 +1200,15 @@ public class GameObject implements Comparable<GameObject> {
         if (dx <= 0 && idx < dx) idx = dx + 0.0000001;
         if (dy >= 0 && idy > dy) idy = dy - 0.0000001;
         if (dy <= 0 && idy < dy) idy = dy + 0.0000001;
+        double step = Math.sqrt(idx*idx + idy*idy);
 
         // check for collision points around our final location
-        // Check each game object
-        for (GameObject obj : gs.base.objects)
+        // Check each collision object near the path
+        ArrayList<GameObject> near = sweep(dx, dy, radius, group);
+        for (int k = 0; k < near.size(); k++)
         {
+            GameObject obj = near.get(k);
+
             // if this is not a collision object, then don't worry!
             if (!obj.collisionOn) continue;
             // See if it is in my group
@@ -886,8 +1219,20 @@ public class GameObject implements Comparable<GameObject> {
             ty = idy;
 
             // check for collision points around our final location
+            int skip = 0;
             while (((dx >= 0 && tx <= maxdx) || (dx <= 0 && tx >= maxdx)) && ((dy >= 0 && ty <= maxdy) || (dy <= 0 && ty >= maxdy)))
             {
+                // too far from the object for any point of the circle to touch it, just step on
+                if (skip == 0)
+                    skip = obj.clearSteps(x + tx, y + ty, radius, step);
+                if (skip > 0)
+                {
+                    skip--;
+                    tx += idx;
+                    ty += idy;
+                    continue;
+                }
+
                 for (int i = 0; i < collisionIterations; i++)
                 {
                     if (obj.isOverlapPoint((int)Math.round(x + tx + circlex[i]), (int)Math.round(y + ty + circley[i]), gs.COL_PIXEL))
@@ -939,8 +1284,6 @@ public class GameObject implements Comparable<GameObject> {
 
         // angle of movement
         double ang = Math.atan2(dy, dx);
-        double tang = ang - (Math.PI/2);
-        double dang = Math.PI/collisionIterations;
 
         // the step of each check
         double idx = Math.cos(ang);
@@ -959,11 +1302,15 @@ public class GameObject implements Comparable<GameObject> {
         if (dx <= 0 && idx < dx) idx = dx + 0.0000001;
         if (dy >= 0 && idy > dy) idy = dy - 0.0000001;
         if (dy <= 0 && idy < dy) idy = dy + 0.0000001;
+        double step = Math.sqrt(idx*idx + idy*idy);
 
         // check for collision points around our final location
-        // Check each game object
-        for (GameObject obj : gs.base.objects)
+        // Check each collision object near the path
+        ArrayList<GameObject> near = sweep(dx, dy, 0, group);
+        for (int k = 0; k < near.size(); k++)
         {
+            GameObject obj = near.get(k);
+
             // if this is not a collision object, then don't worry!
             if (!obj.collisionOn) continue;
             // See if it is in my group
@@ -974,8 +1321,20 @@ public class GameObject implements Comparable<GameObject> {
             ty = idy;
 
             // check for collision points around our final location
+            int skip = 0;
             while (((dx >= 0 && tx <= maxdx) || (dx <= 0 && tx >= maxdx)) && ((dy >= 0 && ty <= maxdy) || (dy <= 0 && ty >= maxdy)))
             {
+                // too far from the object for any point of the circle to touch it, just step on
+                if (skip == 0)
+                    skip = obj.clearSteps(x + tx, y + ty, 0, step);
+                if (skip > 0)
+                {
+                    skip--;
+                    tx += idx;
+                    ty += idy;
+                    continue;
+                }
+
                 if (obj.isOverlapPoint((int)Math.round(x + tx), (int)Math.round(y + ty), gs.COL_PIXEL))
                 {
                     isCollision = Math.sqrt(tx*tx + ty*ty);
@@ -1006,6 +1365,217 @@ public class GameObject implements Comparable<GameObject> {
         return castCollisionLineGroup(dx, dy, -1);
     }
 
+    /**
+     * Casts a ray out of the object from its position to (x + dx, y + dy) and finds the first collision object in the group
+     * it runs into (this object itself is ignored). Unlike castCollisionLine it finds exactly where the ray hits and which
+     * way the surface there is facing, and long rays cost about the same as short ones. Good for fast projectiles and lasers, e.g.
+     * <pre>
+     * RayHit hit = new RayHit();
+     * if (bullet.castRayGroup(vx, vy, ENEMIES, hit))
+     *     hit.getObject().destroy();
+     * </pre>
+     * @param dx amount to cast in the x direction
+     * @param dy amount to cast in the y direction
+     * @param group the group you wish to check against
+     * @param hit filled in with what the ray hit (see RayHit), you can reuse it for every cast
+     * @return true if the ray hit something
+     */
+    public final boolean castRayGroup(double dx, double dy, int group, RayHit hit)
+    {
+        return gs.castRayFrom(this, dx, dy, group, hit);
+    }
+
+    /**
+     * Casts a ray out of the object from its position to (x + dx, y + dy) and finds the first collision object
+     * it runs into (this object itself is ignored). See castRayGroup.
+     * @param dx amount to cast in the x direction
+     * @param dy amount to cast in the y direction
+     * @param hit filled in with what the ray hit (see RayHit), you can reuse it for every cast
+     * @return true if the ray hit something
+     */
+    public final boolean castRay(double dx, double dy, RayHit hit)
+    {
+        return castRayGroup(dx, dy, -1, hit);
+    }
+
+    /**
+     * Sweeps a circle from the object's position towards (x + dx, y + dy) and returns how far it gets before it touches
+     * a collision object in the group (this object itself is ignored). Unlike the other collision functions this doesn't
+     * go a pixel at a time, it jumps across empty space using each object's distance field, so long and fast
+     * movements are just as cheap and can't skip through thin objects.
+     * If there is a hit, getCollisionNormalX() and getCollisionNormalY() tell you which way the surface it hit is facing.
+     * The object is not moved.
+     * @param dx amount to move in the x direction
+     * @param dy amount to move in the y direction
+     * @param radius radius you wish to use around the object
+     * @param group the group you wish to check against
+     * @return how far the circle can move before it touches something, or a negative number if it can move the whole way
+     */
+    public final double sweepCollisionCircleGroup(double dx, double dy, double radius, int group)
+    {
+        double length = Math.sqrt(dx*dx + dy*dy);
+        if (length < 0.000001) return -1;
+
+        double ux = dx/length;
+        double uy = dy/length;
+        radius = Math.abs(radius);
+
+        // look up the distance field of each object near the path once, nothing moves during the sweep
+        ArrayList<GameObject> near = sweep(dx, dy, radius, group);
+        int count = 0;
+        for (int i = 0; i < near.size(); i++)
+        {
+            GameObject obj = near.get(i);
+            if (obj == this || !obj.collisionOn) continue;
+            if (group != -1 && obj.collisionGroup != group) continue;
+
+            obj.updateBound();
+            if (obj.originalimage.isEmpty()) continue;
+
+            if (count == sweepobjs.length)
+                growSweep();
+
+            sweepobjs[count] = obj;
+            sweepfields[count] = obj.mask().field();
+            sweepleft[count] = (int)obj.x - obj.boundwidth/2;
+            sweeptop[count] = (int)obj.y - obj.boundheight/2;
+            sweepreach[count] = 0;
+            count++;
+        }
+
+        // Jump forward by the room around the circle until there is (almost) no room left.
+        // For each object we remember how far along the path it surely can't be touched yet (its reach),
+        // and only look at the field again for the objects that are about as close as the closest one.
+        double t = 0;
+        double hit = -1;
+        while (t <= length)
+        {
+            double cx = x + ux*t;
+            double cy = y + uy*t;
+
+            double gap = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < count; i++)
+                gap = Math.min(gap, sweepreach[i]);
+            gap -= t + radius;
+
+            // anything further than this is surely not touching, even if its reach is old
+            double look = t + radius + Math.max(2*gap, 0) + 1;
+
+            double room = Double.POSITIVE_INFINITY;
+            int closest = -1;
+            for (int i = 0; i < count; i++)
+            {
+                if (sweepreach[i] <= look)
+                    sweepreach[i] = t + sweepfields[i].clearance(cx - sweepleft[i], cy - sweeptop[i]);
+
+                if (sweepreach[i] < room)
+                {
+                    room = sweepreach[i];
+                    closest = i;
+                }
+            }
+
+            room -= t + radius;
+
+            // close enough to call it touching (we never move further than the room we have, so we never go inside)
+            if (room < 0.5)
+            {
+                surfaceNormal(sweepfields[closest], cx - sweepleft[closest], cy - sweeptop[closest], ux, uy);
+                hit = t;
+                break;
+            }
+
+            t += room;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            sweepobjs[i] = null;
+            sweepfields[i] = null;
+        }
+
+        return hit;
+    }
+
+    /**
+     * Sweeps a circle from the object's position towards (x + dx, y + dy) and returns how far it gets before it touches
+     * a collision object (this object itself is ignored). See sweepCollisionCircleGroup.
+     * @param dx amount to move in the x direction
+     * @param dy amount to move in the y direction
+     * @param radius radius you wish to use around the object
+     * @return how far the circle can move before it touches something, or a negative number if it can move the whole way
+     */
+    public final double sweepCollisionCircle(double dx, double dy, double radius)
+    {
+        return sweepCollisionCircleGroup(dx, dy, radius, -1);
+    }
+
+    /**
+     * @return the x part of the direction the surface hit by the last sweepCollisionCircle was facing (length 1 together with y)
+     */
+    public final double getCollisionNormalX()
+    {
+        return normalx;
+    }
+
+    /**
+     * @return the y part of the direction the surface hit by the last sweepCollisionCircle was facing (length 1 together with x)
+     */
+    public final double getCollisionNormalY()
+    {
+        return normaly;
+    }
+
+    /**
+     * Work out which way a surface faces near a point (the way its distance field grows),
+     * and store it as our collision normal.
+     */
+    private void surfaceNormal(DistanceField field, double mx, double my, double ux, double uy)
+    {
+        double nx = field.sample(mx + 1, my) - field.sample(mx - 1, my);
+        double ny = field.sample(mx, my + 1) - field.sample(mx, my - 1);
+        double len = Math.sqrt(nx*nx + ny*ny);
+
+        // flat spot in the field, say the surface faces back the way we came
+        if (len < 0.000001)
+        {
+            nx = -ux;
+            ny = -uy;
+            len = 1;
+        }
+
+        normalx = nx/len;
+        normaly = ny/len;
+    }
+
+    /**
+     * Make room for more objects in a sweep.
+     */
+    private static void growSweep()
+    {
+        int n = sweepobjs.length * 2;
+
+        GameObject[] o = new GameObject[n];
+        System.arraycopy(sweepobjs, 0, o, 0, sweepobjs.length);
+        sweepobjs = o;
+
+        DistanceField[] f = new DistanceField[n];
+        System.arraycopy(sweepfields, 0, f, 0, sweepfields.length);
+        sweepfields = f;
+
+        int[] a = new int[n];
+        System.arraycopy(sweepleft, 0, a, 0, sweepleft.length);
+        sweepleft = a;
+
+        a = new int[n];
+        System.arraycopy(sweeptop, 0, a, 0, sweeptop.length);
+        sweeptop = a;
+
+        double[] d = new double[n];
+        System.arraycopy(sweepreach, 0, d, 0, sweepreach.length);
+        sweepreach = d;
+    }
+
     /**
      * Scale the GameObject's image. 1.0 is 100% (regular size). So twice the size would be 2.0.
      * @param x xScale
@@ -1015,11 +1585,13 @@ public class GameObject implements Comparable<GameObject> {
     {
         xScale = x;
         yScale = y;
+        gs.resizeObject(this);
     }
     public final void scale(double s)
     {
         xScale = s;
         yScale = s;
+        gs.resizeObject(this);
     }
 
     /**
@@ -1039,6 +1611,36 @@ public class GameObject implements Comparable<GameObject> {
         }
             
         angle = Math.toRadians(angle);
+        gs.resizeObject(this);
+    }
+
+    /**
+     * Draw every angle of this object's image ahead of time (at its current scale), so the
+     * first spin doesn't have to draw them while the game is running. Other objects with
+     * the same image file use these too, so you only need to do this for one of them.
+     * NOTE: this takes memory! A 64x64 sprite with 360 angles and 4 frames is about 25MB,
+     * and the cache only keeps as much as gs.setTransformCacheSize allows.
+     */
+    public final void bakeRotations()
+    {
+        int steps = TransformCache.getSteps();
+        if (steps <= 0)
+            return;
+
+        double oldangle = angle;
+        for (BufferedImage src : originalimage)
+        {
+            for (int i = 0; i < steps; i++)
+            {
+                angle = i * 2 * Math.PI / steps;
+                updateBound();
+                TransformCache.get(src, TransformCache.quantizeAngle(angle),
+                        TransformCache.quantizeScale(xScale), TransformCache.quantizeScale(yScale), boundwidth, boundheight);
+            }
+        }
+
+        angle = oldangle;
+        updateBound();
     }
 
     /**
@@ -1064,6 +1666,10 @@ public class GameObject implements Comparable<GameObject> {
 
         if (this.frame >= originalimage.size())
             this.frame = originalimage.size() - 1;
+
+        // keep animating from here
+        if (animated)
+            restartFrame();
     }
 
     /**
@@ -1072,18 +1678,30 @@ public class GameObject implements Comparable<GameObject> {
      */
     public final void animate(boolean onoff)
     {
+        if (onoff == animated)
+            return;
+
+        // stop on the frame we are on, or carry on from it
+        updateFrame();
         animated = onoff;
+        if (animated)
+            restartFrame();
     }
 
     /**
      * Set the speed of the animation. The argument 'framedelay' measures the number of seconds
      * between each frame. So if you want a half second delay between each frame switch put in 0.5.
+     * The animation is timed by the game clock, so it runs at this speed whatever the frame rate is.
+     * (An Animation from setAnimation has its own frame times, this doesn't change those.)
      *
      * @param framedelay The delay (in seconds) between each frame switch when animated.
      */
     public final void setAnimationSpeed(double framedelay)
     {
-        this.framedelay = (int)(framedelay*(gs.getFPS() < 1?40:gs.getFPS()));
+        updateFrame();
+        this.framedelay = Math.max(1, (long)(framedelay * 1000000000L));
+        if (animated)
+            restartFrame();
     }
 
     /**
@@ -1092,6 +1710,7 @@ public class GameObject implements Comparable<GameObject> {
      */
     public final int getFrame()
     {
+        updateFrame();
         return frame;
     }
 
@@ -1129,18 +1748,19 @@ public class GameObject implements Comparable<GameObject> {
      */
     public final void setDepth(int z)
     {
-        depth = z;
-
-        Collections.sort(gs.base.objects);
+        gs.moveObject(this, z);
     }
 
     /**
      * Compares the depth of two GameObjects. This is used internally, not necessary for users.
+     * Objects at the same depth are ordered by when they were created.
      * @param o
-     * @return positive if the comparator object goes before 'o', negative otherwise. 0 for a tie.
+     * @return negative if this object is drawn before 'o', positive if it is drawn after. 0 only for the same object.
      */
     public final int compareTo(GameObject o) {
-        return o.depth - depth;
+        if (depth != o.depth)
+            return o.depth - depth;
+        return order < o.order ? -1 : (order > o.order ? 1 : 0);
     }
 
     public String toString()
@@ -5,7 +5,6 @@
  */
 package goodsky;
 
-import java.io.File;
 import javax.sound.sampled.*;
 import javax.sound.midi.*;
 
@@ -37,23 +36,19 @@ public class GameSound
      */
     public GameSound(String filename)
     {
-        // Attempt to load in the new sound
-        File file = new File(filename);
-
-        // See if this new file is a midi file or not
+        // Attempt to load in the new sound (this is instant if it was preloaded)
+        AssetCache.Sound sound;
         try {
-            MidiSystem.getMidiFileFormat(file);
-            ismidi = true;
-        }
-        catch (InvalidMidiDataException e)
-        {
-            ismidi = false;
+            sound = AssetCache.getSound(filename);
         }
         catch (Exception  e)
         {
             throw new GoodSkyException("OH NOES! I had a problem opening up your sound file. Check on that.");
         }
 
+        // See if this new file is a midi file or not
+        ismidi = sound.sequence != null;
+
         // Load the file and get it ready to play when we need it to
         if (ismidi)
         {
@@ -67,8 +62,7 @@ public class GameSound
 
                 // The sequencer and the synthesizer apparently may not be connected automatically
                 // So we will explicitely link them
-                Sequence sequence = MidiSystem.getSequence(file);
-                sequencer.setSequence(sequence);
+                sequencer.setSequence(sound.sequence);
             }
             catch (Exception e)
             {
@@ -79,16 +73,9 @@ public class GameSound
         else
         {
             try {
-                AudioInputStream audioinput = AudioSystem.getAudioInputStream(file);
-
-                try {
-                    DataLine.Info info = new DataLine.Info(Clip.class, audioinput.getFormat());
-                    myclip = (Clip) AudioSystem.getLine(info);
-                    myclip.open(audioinput);
-                }
-                finally {
-                    audioinput.close();
-                }
+                DataLine.Info info = new DataLine.Info(Clip.class, sound.format);
+                myclip = (Clip) AudioSystem.getLine(info);
+                myclip.open(sound.format, sound.data, 0, sound.data.length);
             }
             catch (Exception e)
             {
@@ -0,0 +1,173 @@
+/*
+ * A queue of keyboard and mouse events that one thread fills and another
+ * thread empties, without locks and without making garbage.
+ */
+package goodsky;
+
+/**
+ * A ring buffer of timestamped input events. Exactly one thread may add events (e.g. the AWT
+ * event thread) and exactly one thread may take them out (the game thread in gs.sync()).
+ *
+ * The events are kept in plain arrays that are reused forever, so adding an event never makes
+ * a new object. The producer only writes tail and the consumer only writes head. Both are
+ * volatile, so everything the producer wrote into a slot before moving tail is visible to the
+ * consumer once it sees the new tail, and a slot is only reused once the consumer moved head past it.
+ *
+ * If the game stops emptying the queue and it fills up, new events are dropped (and counted)
+ * instead of making the event thread wait.
+ */
+class InputQueue
+{
+    /** A key was pressed, code is the KeyEvent key code */
+    static final int KEY_DOWN = 0;
+    /** A key was released, code is the KeyEvent key code */
+    static final int KEY_UP = 1;
+    /** A mouse button was pressed, code is the MouseEvent button */
+    static final int MOUSE_DOWN = 2;
+    /** A mouse button was released, code is the MouseEvent button */
+    static final int MOUSE_UP = 3;
+    /** The mouse moved to x, y */
+    static final int MOUSE_MOVE = 4;
+
+    // The events, slot i holds event number i & mask
+    private final int mask;
+    private final int[] types;
+    private final int[] codes;
+    private final int[] xs;
+    private final int[] ys;
+    private final long[] times;
+
+    // Number of the next event to take out (only the consumer writes this)
+    private volatile long head = 0;
+
+    // Number of the next event to put in (only the producer writes this)
+    private volatile long tail = 0;
+
+    // The producer's copy of head, so it only reads the volatile head when the queue looks full
+    private long headcache = 0;
+
+    // The consumer's copy of tail, so it only reads the volatile tail when the queue looks empty
+    private long tailcache = 0;
+
+    // Events we had to throw away because the queue was full (only the producer writes this)
+    private volatile int dropped = 0;
+
+    /**
+     * Make an empty queue.
+     * @param capacity most events the queue can hold, rounded up to a power of 2
+     */
+    InputQueue(int capacity)
+    {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        mask = size - 1;
+        types = new int[size];
+        codes = new int[size];
+        xs = new int[size];
+        ys = new int[size];
+        times = new long[size];
+    }
+
+    /**
+     * Add an event (producer thread only).
+     * @param type what happened, e.g. KEY_DOWN
+     * @param code the key code or mouse button
+     * @param x mouse x (or 0)
+     * @param y mouse y (or 0)
+     * @return false if the queue was full and the event was dropped
+     */
+    boolean offer(int type, int code, int x, int y)
+    {
+        long t = tail;
+        if (t - headcache > mask)
+        {
+            headcache = head;
+            if (t - headcache > mask)
+            {
+                dropped++;
+                return false;
+            }
+        }
+
+        int slot = (int)t & mask;
+        types[slot] = type;
+        codes[slot] = code;
+        xs[slot] = x;
+        ys[slot] = y;
+        times[slot] = System.nanoTime();
+
+        // publish the event
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * @return true if there is an event to take out (consumer thread only)
+     */
+    boolean hasNext()
+    {
+        if (head < tailcache)
+            return true;
+
+        tailcache = tail;
+        return head < tailcache;
+    }
+
+    /**
+     * @return when the next event happened in System.nanoTime() time (call hasNext() first)
+     */
+    long nextTime()
+    {
+        return times[(int)head & mask];
+    }
+
+    /**
+     * @return what the next event is, e.g. KEY_DOWN (call hasNext() first)
+     */
+    int nextType()
+    {
+        return types[(int)head & mask];
+    }
+
+    /**
+     * @return the key code or mouse button of the next event (call hasNext() first)
+     */
+    int nextCode()
+    {
+        return codes[(int)head & mask];
+    }
+
+    /**
+     * @return the mouse x of the next event (call hasNext() first)
+     */
+    int nextX()
+    {
+        return xs[(int)head & mask];
+    }
+
+    /**
+     * @return the mouse y of the next event (call hasNext() first)
+     */
+    int nextY()
+    {
+        return ys[(int)head & mask];
+    }
+
+    /**
+     * Take out the next event, its slot can be reused by the producer after this.
+     */
+    void remove()
+    {
+        head = head + 1;
+    }
+
+    /**
+     * @return how many events were thrown away because the queue was full
+     */
+    int getDropped()
+    {
+        return dropped;
+    }
+}
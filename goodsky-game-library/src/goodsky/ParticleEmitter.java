@@ -0,0 +1,161 @@
+/*
+ * A spot that sprays particles into a ParticleSystem every update.
+ */
+package goodsky;
+
+import java.util.*;
+
+/**
+ * Sprays particles from a spot, a few every update, in a direction with some spread (or all around).
+ * Make one with ParticleSystem.addEmitter and move it around with setPosition, e.g. to follow a rocket.
+ *
+ * Angles are in degrees: 0 is to the right, 90 is down, 180 is to the left and 270 is up.
+ */
+public class ParticleEmitter
+{
+    // The system the particles go into, and their sprite
+    private final ParticleSystem system;
+    private int sprite;
+
+    private double x = 0;
+    private double y = 0;
+
+    // particles per update, and the part of a particle left over from the last update
+    private double rate = 1;
+    private double carry = 0;
+
+    private double minspeed = 1;
+    private double maxspeed = 2;
+    private double direction = 0;
+    private double spread = 360;
+    private int minlife = 30;
+    private int maxlife = 60;
+
+    private boolean on = true;
+
+    /**
+     * Make an emitter (use ParticleSystem.addEmitter).
+     */
+    ParticleEmitter(ParticleSystem system, int sprite)
+    {
+        this.system = system;
+        this.sprite = sprite;
+    }
+
+    /**
+     * Stop spraying for good, the emitter is taken out of its system. The particles it made live on.
+     */
+    public final void destroy()
+    {
+        system.removeEmitter(this);
+    }
+
+    /**
+     * Move the emitter.
+     * @param x x position to spray from
+     * @param y y position to spray from
+     */
+    public final void setPosition(double x, double y)
+    {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Set how many particles to spray every update. It doesn't have to be a whole number,
+     * e.g. 0.25 makes one every 4 updates.
+     * @param perUpdate particles per update
+     */
+    public final void setRate(double perUpdate)
+    {
+        rate = Math.max(0, perUpdate);
+    }
+
+    /**
+     * Set how fast the particles fly out, each one gets a random speed in between.
+     * @param min the slowest (pixels per update)
+     * @param max the fastest (pixels per update)
+     */
+    public final void setSpeed(double min, double max)
+    {
+        minspeed = min;
+        maxspeed = max;
+    }
+
+    /**
+     * Set which way the particles fly out.
+     * @param angle the direction in degrees (0 is right, 90 is down)
+     * @param spread how wide the spray is in degrees (360 for all around, the default)
+     */
+    public final void setDirection(double angle, double spread)
+    {
+        direction = angle;
+        this.spread = spread;
+    }
+
+    /**
+     * Set how long the particles live, each one gets a random life in between.
+     * @param min the shortest life in updates (at least 1)
+     * @param max the longest life in updates
+     */
+    public final void setLife(int min, int max)
+    {
+        if (min <= 0 || max < min)
+            throw new GoodSkyException("A particle's life has to be at least 1 update, and max can't be less than min");
+
+        minlife = min;
+        maxlife = max;
+    }
+
+    /**
+     * Change the sprite of the particles from now on.
+     * @param spriteid the sprite (from the system's addSprite)
+     */
+    public final void setSprite(int spriteid)
+    {
+        system.checkSprite(spriteid);
+        sprite = spriteid;
+    }
+
+    /**
+     * Turn spraying on or off.
+     * @param onOff true to spray, false to stop for now
+     */
+    public final void setOn(boolean onOff)
+    {
+        on = onOff;
+        carry = 0;
+    }
+
+    /**
+     * @return true if the emitter is spraying
+     */
+    public final boolean isOn()
+    {
+        return on;
+    }
+
+    /**
+     * Spray this update's particles.
+     */
+    void spray()
+    {
+        if (!on)
+            return;
+
+        carry += rate;
+        int n = (int)carry;
+        carry -= n;
+
+        Random r = system.random();
+        for (int i = 0; i < n; i++)
+        {
+            double ang = Math.toRadians(direction + (r.nextDouble() - 0.5) * spread);
+            double speed = minspeed + r.nextDouble() * (maxspeed - minspeed);
+            int plife = minlife + r.nextInt(maxlife - minlife + 1);
+
+            if (!system.spawn(sprite, x, y, Math.cos(ang) * speed, Math.sin(ang) * speed, plife))
+                break;
+        }
+    }
+}
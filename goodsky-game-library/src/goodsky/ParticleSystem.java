@@ -0,0 +1,519 @@
+/*
+ * Sparks, smoke, explosions and the like: lots of short lived sprites that
+ * move and fade by themselves, without a GameObject for each one.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * A pool of particles. Each particle has a position, a velocity, a sprite and a lifetime (in updates).
+ * The system moves them on by itself every frame (every update with gs.setFixedTimestep), pulls them
+ * with gravity, slows them with drag, fades them out as they get old and gets rid of them when their
+ * time is up. Animated sprites play once over each particle's life.
+ *
+ * Everything is kept in arrays made once when the system is made, so having tens of thousands of
+ * particles on the go doesn't make garbage or slow the rest of the game down. If the pool is full,
+ * new particles are skipped until old ones die.
+ *
+ * Particles come from emit(), burst() or from emitters that spray particles every update, e.g.
+ * <pre>
+ * ParticleSystem sparks = new ParticleSystem(20000);
+ * int SPARK = sparks.addSprite(gs.CIRCLE, 4, Color.ORANGE);
+ * sparks.setGravity(0, 0.2);
+ *
+ * ParticleEmitter torch = sparks.addEmitter(SPARK);
+ * torch.setPosition(100, 300);
+ * torch.setDirection(270, 40);
+ *
+ * // when something blows up
+ * sparks.burst(SPARK, enemy.x, enemy.y, 200, 1, 6, 40);
+ * </pre>
+ * All the particles of a system are drawn together at the system's depth, the way a GameObject at that
+ * depth would be (on top of GameObjects at the same depth). They are copied onto a see-through layer
+ * the size of the screen a pixel at a time, in one go, and the layer is drawn like one big sprite.
+ * Drawing tens of thousands of little images one by one would take far longer than a frame.
+ */
+public class ParticleSystem
+{
+    // The sprites the particles are drawn with
+    private SpriteSet sprites = new SpriteSet("ParticleSystem");
+
+    // The particles, the live ones are packed at the front
+    private final double[] x;
+    private final double[] y;
+    private final double[] vx;
+    private final double[] vy;
+    private final double[] prevx;
+    private final double[] prevy;
+    private final int[] age;
+    private final int[] life;
+    private final int[] sprite;
+    private int count = 0;
+
+    // The emitters spraying particles every update
+    private ArrayList<ParticleEmitter> emitters = new ArrayList<ParticleEmitter>();
+
+    // How the particles move
+    private double gravityx = 0;
+    private double gravityy = 0;
+    private double drag = 1;
+    private boolean fade = true;
+
+    private int depth = 0;
+    private boolean visible = true;
+
+    // true once the particles are in this frame's draw list
+    private boolean drawn = false;
+
+    // The layers the particles are drawn on. There are two so the render thread can draw one while we
+    // fill the other, and each remembers the part of it that has particles on it (to clear next time)
+    private BufferedImage[] layers = new BufferedImage[2];
+    private int[][] layerpixels = new int[2][];
+    private int[][] layerused = new int[2][4];
+    private int layer = 0;
+
+    private Random random = new Random();
+
+    /**
+     * Make a particle system with room for 10000 particles and add it to the game.
+     */
+    public ParticleSystem()
+    {
+        this(10000);
+    }
+
+    /**
+     * Make a particle system and add it to the game.
+     * @param capacity the most particles that can be alive at once
+     */
+    public ParticleSystem(int capacity)
+    {
+        if (capacity <= 0)
+            throw new GoodSkyException("A ParticleSystem needs room for at least one particle");
+
+        x = new double[capacity];
+        y = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        prevx = new double[capacity];
+        prevy = new double[capacity];
+        age = new int[capacity];
+        life = new int[capacity];
+        sprite = new int[capacity];
+
+        gs.addParticleSystem(this);
+    }
+
+    /**
+     * Take the system out of the game, its particles stop moving and aren't drawn anymore.
+     */
+    public final void destroy()
+    {
+        gs.removeParticleSystem(this);
+    }
+
+    /**
+     * Add a sprite from an image file.
+     * @param filename the image file. e.g. "spark.png"
+     * @return the sprite id to give to emit(), burst() and addEmitter()
+     */
+    public final int addSprite(String filename)
+    {
+        return sprites.addFile(filename);
+    }
+
+    /**
+     * Add an animated sprite from an image file with the frames on top of each other (like GameObject.setAnimatedImage).
+     * The animation plays once over the life of each particle.
+     * @param filename the image file
+     * @param width width of each frame in the image
+     * @param height height of each frame in the image
+     * @param frames number of frames
+     * @return the sprite id to give to emit(), burst() and addEmitter()
+     */
+    public final int addAnimatedSprite(String filename, int width, int height, int frames)
+    {
+        return sprites.addAnimated(filename, width, height, frames);
+    }
+
+    /**
+     * Add a sprite that is a plain shape (like GameObject.setShape).
+     * @param shape the shape. e.g. gs.CIRCLE
+     * @param size the size (in pixels) of the shape
+     * @param c the color of the shape
+     * @return the sprite id to give to emit(), burst() and addEmitter()
+     */
+    public final int addSprite(int shape, int size, Color c)
+    {
+        return sprites.addShape(shape, size, c);
+    }
+
+    /**
+     * Add a sprite made of images you made yourself (one for each animation frame).
+     * @param frames the frames of the sprite (all the same size, don't change them after this)
+     * @return the sprite id to give to emit(), burst() and addEmitter()
+     */
+    public final int addSprite(BufferedImage[] frames)
+    {
+        return sprites.add(frames);
+    }
+
+    /**
+     * Add one particle.
+     * @param spriteid the sprite to draw it with (from addSprite)
+     * @param x x position of its center
+     * @param y y position of its center
+     * @param vx how far it moves in x every update
+     * @param vy how far it moves in y every update
+     * @param life how many updates it lives for
+     * @return true if it was added, false if the pool is full
+     */
+    public final boolean emit(int spriteid, double x, double y, double vx, double vy, int life)
+    {
+        sprites.check(spriteid);
+        if (life <= 0)
+            throw new GoodSkyException("A particle has to live for at least 1 update");
+
+        return spawn(spriteid, x, y, vx, vy, life);
+    }
+
+    /**
+     * Add lots of particles at once, flying out in every direction (e.g. an explosion).
+     * @param spriteid the sprite to draw them with (from addSprite)
+     * @param x x position they start at
+     * @param y y position they start at
+     * @param count how many particles
+     * @param minspeed the slowest they move (pixels per update)
+     * @param maxspeed the fastest they move (pixels per update)
+     * @param life how many updates they live for
+     * @return how many were added (less than count if the pool filled up)
+     */
+    public final int burst(int spriteid, double x, double y, int count, double minspeed, double maxspeed, int life)
+    {
+        sprites.check(spriteid);
+        if (life <= 0)
+            throw new GoodSkyException("A particle has to live for at least 1 update");
+
+        int added = 0;
+        for (int i = 0; i < count; i++)
+        {
+            double ang = random.nextDouble() * Math.PI * 2;
+            double speed = minspeed + random.nextDouble() * (maxspeed - minspeed);
+            if (!spawn(spriteid, x, y, Math.cos(ang) * speed, Math.sin(ang) * speed, life))
+                break;
+            added++;
+        }
+
+        return added;
+    }
+
+    /**
+     * Add an emitter that sprays particles from a spot every update until you turn it off or destroy it.
+     * @param spriteid the sprite of its particles (from addSprite)
+     * @return the emitter, use it to move it around and change how it sprays
+     */
+    public final ParticleEmitter addEmitter(int spriteid)
+    {
+        sprites.check(spriteid);
+
+        ParticleEmitter e = new ParticleEmitter(this, spriteid);
+        emitters.add(e);
+        return e;
+    }
+
+    /**
+     * Set how much the particles speed up every update, e.g. setGravity(0, 0.2) makes them fall.
+     * @param gx added to every particle's x velocity every update
+     * @param gy added to every particle's y velocity every update
+     */
+    public final void setGravity(double gx, double gy)
+    {
+        gravityx = gx;
+        gravityy = gy;
+    }
+
+    /**
+     * Set how much the particles slow down. Every update their velocity is multiplied by this.
+     * @param d 1.0 to keep going forever (the default), a bit less (e.g. 0.95) to slow down
+     */
+    public final void setDrag(double d)
+    {
+        drag = d;
+    }
+
+    /**
+     * Turn fading on or off. With fading on the particles get more see-through as they get older.
+     * @param onOff true to fade the particles out (the default), false to keep them solid until they die
+     */
+    public final void setFade(boolean onOff)
+    {
+        fade = onOff;
+    }
+
+    /**
+     * Set the depth the particles are drawn at, it works the same as GameObject.setDepth.
+     * @param z the depth
+     */
+    public final void setDepth(int z)
+    {
+        depth = z;
+    }
+
+    /**
+     * @return the depth the particles are drawn at
+     */
+    public final int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Show or hide the particles (they keep moving while hidden).
+     * @param v true to draw the particles, false to hide them
+     */
+    public final void setVisible(boolean v)
+    {
+        visible = v;
+    }
+
+    /**
+     * @return true if the particles are drawn
+     */
+    public final boolean isVisible()
+    {
+        return visible;
+    }
+
+    /**
+     * @return how many particles are alive
+     */
+    public final int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return the most particles that can be alive at once
+     */
+    public final int getCapacity()
+    {
+        return x.length;
+    }
+
+    /**
+     * Get rid of every particle (the emitters keep spraying).
+     */
+    public final void clear()
+    {
+        count = 0;
+    }
+
+    /**
+     * Stop an emitter (see ParticleEmitter.destroy).
+     */
+    void removeEmitter(ParticleEmitter e)
+    {
+        emitters.remove(e);
+    }
+
+    /**
+     * Make sure a sprite id is one of this system's.
+     */
+    void checkSprite(int spriteid)
+    {
+        sprites.check(spriteid);
+    }
+
+    /**
+     * @return the random numbers the emitters use
+     */
+    Random random()
+    {
+        return random;
+    }
+
+    /**
+     * Put a particle in the pool.
+     * @return false if the pool is full
+     */
+    boolean spawn(int spriteid, double px, double py, double pvx, double pvy, int plife)
+    {
+        if (count == x.length)
+            return false;
+
+        int i = count++;
+        x[i] = px;
+        y[i] = py;
+        vx[i] = pvx;
+        vy[i] = pvy;
+        prevx[i] = px;
+        prevy[i] = py;
+        age[i] = 0;
+        life[i] = plife;
+        sprite[i] = spriteid;
+        return true;
+    }
+
+    /**
+     * Move every particle on by one update, get rid of the ones whose time is up and let the emitters spray.
+     */
+    void step()
+    {
+        int i = 0;
+        while (i < count)
+        {
+            if (++age[i] >= life[i])
+            {
+                // the last particle takes this one's place
+                int last = --count;
+                x[i] = x[last];
+                y[i] = y[last];
+                vx[i] = vx[last];
+                vy[i] = vy[last];
+                prevx[i] = prevx[last];
+                prevy[i] = prevy[last];
+                age[i] = age[last];
+                life[i] = life[last];
+                sprite[i] = sprite[last];
+                continue;
+            }
+
+            prevx[i] = x[i];
+            prevy[i] = y[i];
+            vx[i] = vx[i] * drag + gravityx;
+            vy[i] = vy[i] * drag + gravityy;
+            x[i] += vx[i];
+            y[i] += vy[i];
+            i++;
+        }
+
+        // new particles start where they are made, they move from the next update on
+        for (int e = 0; e < emitters.size(); e++)
+            emitters.get(e).spray();
+    }
+
+    /**
+     * Get ready to draw a frame.
+     */
+    void beginDraw()
+    {
+        drawn = false;
+    }
+
+    /**
+     * Add the particles to the draw list if the system is drawn before anything at a depth.
+     * @param list the draw list (its camera is used to skip particles that are off the screen)
+     * @param before draw if the system's depth is higher than this (Long.MIN_VALUE to draw if not done yet)
+     * @param interpolate true to draw the particles between their last two updates
+     * @param alpha how far between the updates
+     * @return how many particles were drawn (their layer is one image in the draw list)
+     */
+    int draw(DrawList list, long before, boolean interpolate, double alpha)
+    {
+        if (drawn || depth <= before)
+            return 0;
+        drawn = true;
+
+        if (!visible || count == 0 || list.width <= 0 || list.height <= 0)
+            return 0;
+
+        // take the layer that isn't being drawn, and wipe the particles of last time off it
+        layer = 1 - layer;
+        int screenw = list.width;
+        int screenh = list.height;
+        if (layers[layer] == null || layers[layer].getWidth() != screenw || layers[layer].getHeight() != screenh)
+        {
+            layers[layer] = new BufferedImage(screenw, screenh, BufferedImage.TYPE_INT_ARGB_PRE);
+            layerpixels[layer] = ((DataBufferInt)layers[layer].getRaster().getDataBuffer()).getData();
+        }
+        else
+        {
+            int[] used = layerused[layer];
+            for (int row = used[1]; row < used[3]; row++)
+                Arrays.fill(layerpixels[layer], row*screenw + used[0], row*screenw + used[2], 0);
+        }
+
+        int[] dst = layerpixels[layer];
+        int usedleft = screenw;
+        int usedtop = screenh;
+        int usedright = 0;
+        int usedbottom = 0;
+        int shown = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            double px = x[i];
+            double py = y[i];
+            if (interpolate)
+            {
+                px = prevx[i] + (px - prevx[i]) * alpha;
+                py = prevy[i] + (py - prevy[i]) * alpha;
+            }
+
+            // where it goes on the screen, and the part of it that is on the screen
+            int sp = sprite[i];
+            int w = sprites.width[sp];
+            int h = sprites.height[sp];
+            int sx = (int)px - w/2 - list.camerax;
+            int sy = (int)py - h/2 - list.cameray;
+            int x0 = Math.max(0, -sx);
+            int y0 = Math.max(0, -sy);
+            int x1 = Math.min(w, screenw - sx);
+            int y1 = Math.min(h, screenh - sy);
+            if (x0 >= x1 || y0 >= y1)
+                continue;
+
+            usedleft = Math.min(usedleft, sx + x0);
+            usedtop = Math.min(usedtop, sy + y0);
+            usedright = Math.max(usedright, sx + x1);
+            usedbottom = Math.max(usedbottom, sy + y1);
+            shown++;
+
+            // animations play once over the particle's life
+            int frames = sprites.frames(sp);
+            int[] src = sprites.pixels(sp, frames > 1 ? (int)((long)age[i] * frames / life[i]) : 0);
+
+            // how solid it is, out of 256
+            int a = fade ? (life[i] - age[i]) * 256 / life[i] : 256;
+
+            for (int row = y0; row < y1; row++)
+            {
+                int si = row*w + x0;
+                int di = (sy + row)*screenw + sx + x0;
+                for (int col = x0; col < x1; col++, si++, di++)
+                {
+                    int s = src[si];
+                    if (s == 0)
+                        continue;
+
+                    // fade it (the pixels are premultiplied, so every channel is scaled)
+                    if (a < 256)
+                        s = ((((s & 0x00FF00FF) * a) >>> 8) & 0x00FF00FF) | ((((s >>> 8) & 0x00FF00FF) * a) & 0xFF00FF00);
+
+                    // and put it over what is already there
+                    int m = 255 - (s >>> 24);
+                    if (m != 0)
+                    {
+                        int d = dst[di];
+                        m += m >> 7;
+                        s += ((((d & 0x00FF00FF) * m) >>> 8) & 0x00FF00FF) | ((((d >>> 8) & 0x00FF00FF) * m) & 0xFF00FF00);
+                    }
+                    dst[di] = s;
+                }
+            }
+        }
+
+        int[] used = layerused[layer];
+        used[0] = usedleft;
+        used[1] = usedtop;
+        used[2] = usedright;
+        used[3] = usedbottom;
+
+        if (shown > 0)
+            list.add(layers[layer], 0, 0);
+        return shown;
+    }
+}
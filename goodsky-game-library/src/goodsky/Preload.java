@@ -0,0 +1,165 @@
+/*
+ * Loads images and sounds in the background so the game doesn't freeze
+ * while a new level is loading.
+ */
+package goodsky;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps track of a group of files that are being loaded in the background. You get one of
+ * these from gs.preload(). Keep calling gs.sync() (e.g. to draw a loading bar with
+ * getProgress()) until isDone() is true. After that, GameObjects, GameSounds and backgrounds
+ * that use these files load instantly.
+ *
+ * <pre>
+ * Preload level = gs.preload("tree.png", "bullet.png", "boom.wav", "music.mid");
+ * while (!level.isDone())
+ * {
+ *     gs.text("Loading... " + (int)(level.getProgress() * 100) + "%", 350, 250);
+ *     gs.sync();
+ * }
+ * </pre>
+ */
+public class Preload
+{
+    // Files with these endings are loaded as sounds, everything else is loaded as an image
+    private static final String[] SOUND_TYPES = { ".wav", ".mid", ".midi", ".au", ".aif", ".aiff" };
+
+    // The worker threads shared by every preload (made the first time they are needed)
+    private static ExecutorService pool = null;
+
+    private final String[] files;
+    private final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+
+    /**
+     * Start loading some files. Use gs.preload() instead of this.
+     */
+    Preload(String[] files)
+    {
+        this.files = files.clone();
+
+        for (String f : this.files)
+        {
+            final String filename = f;
+            final boolean sound = isSound(filename);
+
+            futures.add(pool().submit(new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    if (sound)
+                        return AssetCache.getSound(filename);
+                    else
+                        return AssetCache.getImage(filename);
+                }
+            }));
+        }
+    }
+
+    /**
+     * How far along the loading is.
+     * @return 0.0 when nothing has loaded yet, up to 1.0 when everything is loaded
+     */
+    public float getProgress()
+    {
+        if (futures.isEmpty())
+            return 1.0f;
+
+        int done = 0;
+        for (Future<?> f : futures)
+        {
+            if (f.isDone())
+                done++;
+        }
+
+        return (float)done / futures.size();
+    }
+
+    /**
+     * @return true once every file has finished loading (or failed to load)
+     */
+    public boolean isDone()
+    {
+        for (Future<?> f : futures)
+        {
+            if (!f.isDone())
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the future for each file, in the same order the files were given.
+     * Use this if you want to wait for a few important files before the others.
+     * @return the futures of the files
+     */
+    public List<Future<?>> getFutures()
+    {
+        return Collections.unmodifiableList(futures);
+    }
+
+    /**
+     * Stop and wait until every file is loaded. If a file couldn't be loaded you get the
+     * error here (instead of later when an object tries to use the file).
+     */
+    public void await()
+    {
+        for (int i = 0; i < futures.size(); i++)
+        {
+            try {
+                futures.get(i).get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e) {
+                throw new GoodSkyException("BUMMER! I couldn't preload the file " + files[i] + ". Make sure you typed the file name correctly!");
+            }
+        }
+    }
+
+    /**
+     * @return true if we should load the file as a sound
+     */
+    private static boolean isSound(String filename)
+    {
+        String name = filename.toLowerCase();
+        for (String type : SOUND_TYPES)
+        {
+            if (name.endsWith(type))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The worker threads. There are only a few of them (one per processor, at most 4) so loading
+     * doesn't fight with the game for the processor. They never keep the program running.
+     */
+    private static synchronized ExecutorService pool()
+    {
+        if (pool == null)
+        {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+            {
+                private int count = 0;
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "goodsky-preload-" + (++count));
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                }
+            });
+        }
+
+        return pool;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Casts rays against the collision objects and finds exactly where they hit,
+ * without stepping along the ray a pixel at a time.
+ */
+package goodsky;
+
+import java.util.*;
+
+/**
+ * Finds the first solid pixel a ray runs into. The ray walks through the collision grid one cell length
+ * at a time, so far away objects are never looked at, and it stops as soon as it has a hit closer than
+ * the part of the ray it has walked so far.
+ *
+ * For each object near the ray, it goes through the pixels of the object's collision mask the ray passes
+ * over, in order (a DDA walk: step into whichever pixel the ray reaches first, the one on the right/left or
+ * the one below/above). The first solid one is the hit, and the side of the pixel the ray came in through
+ * is the surface normal. A pixel at (px, py) is everything that rounds to it, like isOverlapPoint sees it,
+ * so it runs from px - 0.5 to px + 0.5.
+ */
+class RayCaster
+{
+    // The objects near a part of the ray (reused by every cast)
+    private ArrayList<GameObject> found = new ArrayList<GameObject>();
+
+    // Goes up every cast, objects are marked with it when they are checked so they are only checked once
+    private int cast = 0;
+
+    // The side of the pixel the last hitObject hit came in through
+    private double hitnx;
+    private double hitny;
+
+    /**
+     * Cast one ray.
+     * @param grid the objects to cast against (already refreshed), or null if there are none
+     * @param ignore an object the ray can't hit (e.g. the one shooting it), or null
+     * @param ox x the ray starts at
+     * @param oy y the ray starts at
+     * @param dx how far the ray goes in x
+     * @param dy how far the ray goes in y
+     * @param hit filled in with what the ray hit
+     * @return true if the ray hit something
+     */
+    boolean cast(SpatialGrid grid, GameObject ignore, double ox, double oy, double dx, double dy, RayHit hit)
+    {
+        hit.miss();
+
+        double length = Math.sqrt(dx*dx + dy*dy);
+        if (grid == null || length < 0.000001)
+            return false;
+
+        double ux = dx/length;
+        double uy = dy/length;
+        cast++;
+
+        GameObject best = null;
+        double bestt = length;
+        double bestnx = 0;
+        double bestny = 0;
+
+        // walk the ray one cell length at a time
+        double seg = grid.cellsize();
+        for (double start = 0; start < length; start += seg)
+        {
+            double end = Math.min(length, start + seg);
+
+            // a pixel reaches half a pixel past its position, and the ray may touch it right at the end
+            double x1 = ox + ux*start;
+            double y1 = oy + uy*start;
+            double x2 = ox + ux*end;
+            double y2 = oy + uy*end;
+            grid.query(Math.min(x1, x2) - 1, Math.min(y1, y2) - 1, Math.max(x1, x2) + 1, Math.max(y1, y2) + 1, found);
+
+            for (int i = 0; i < found.size(); i++)
+            {
+                GameObject obj = found.get(i);
+                if (obj == ignore || obj.raycast == cast)
+                    continue;
+                obj.raycast = cast;
+
+                double t = hitObject(obj, ox, oy, ux, uy, bestt);
+                if (t < 0)
+                    continue;
+
+                // on a tie, the object drawn first wins (the same order the other collision casts check in)
+                if (best == null || t < bestt || (t == bestt && obj.compareTo(best) < 0))
+                {
+                    best = obj;
+                    bestt = t;
+                    bestnx = hitnx;
+                    bestny = hitny;
+                }
+            }
+            found.clear();
+
+            // every object that could be hit before here has been checked
+            if (best != null && bestt <= end)
+                break;
+        }
+
+        if (best == null)
+            return false;
+
+        hit.set(best, bestt, ox + ux*bestt, oy + uy*bestt, bestnx, bestny);
+        return true;
+    }
+
+    /**
+     * Find where a ray first runs into a solid pixel of an object.
+     * @param ux the direction of the ray (length 1)
+     * @param uy the direction of the ray (length 1)
+     * @param tmax how far along the ray to look
+     * @return how far along the ray the hit is, or -1 if there isn't one before tmax
+     */
+    private double hitObject(GameObject obj, double ox, double oy, double ux, double uy, double tmax)
+    {
+        obj.updateBound();
+        if (obj.originalimage.isEmpty())
+            return -1;
+
+        CollisionMask mask = obj.mask();
+        int left = (int)obj.x - obj.boundwidth/2;
+        int top = (int)obj.y - obj.boundheight/2;
+
+        // the mask pixels isOverlapPoint can see (it only looks strictly inside the bounding box)
+        int minx = Math.max(0, (int)Math.floor(obj.x - obj.boundwidth/2) + 1 - left);
+        int maxx = Math.min(mask.width - 1, (int)Math.ceil(obj.x + obj.boundwidth/2) - 1 - left);
+        int miny = Math.max(0, (int)Math.floor(obj.y - obj.boundheight/2) + 1 - top);
+        int maxy = Math.min(mask.height - 1, (int)Math.ceil(obj.y + obj.boundheight/2) - 1 - top);
+        if (minx > maxx || miny > maxy)
+            return -1;
+
+        // where the ray starts in the mask, moved half a pixel so pixel px runs from px to px + 1
+        double px = ox - left + 0.5;
+        double py = oy - top + 0.5;
+
+        // the part of the ray inside the pixels we can see, and which side it came in through (-1: it starts inside)
+        double tin = 0;
+        double tout = tmax;
+        int side = -1;
+
+        if (ux == 0)
+        {
+            if (px < minx || px >= maxx + 1)
+                return -1;
+        }
+        else
+        {
+            double ta = (minx - px)/ux;
+            double tb = (maxx + 1 - px)/ux;
+            if (ta > tb) { double s = ta; ta = tb; tb = s; }
+            if (ta > tin) { tin = ta; side = 0; }
+            tout = Math.min(tout, tb);
+        }
+
+        if (uy == 0)
+        {
+            if (py < miny || py >= maxy + 1)
+                return -1;
+        }
+        else
+        {
+            double ta = (miny - py)/uy;
+            double tb = (maxy + 1 - py)/uy;
+            if (ta > tb) { double s = ta; ta = tb; tb = s; }
+            if (ta > tin) { tin = ta; side = 1; }
+            tout = Math.min(tout, tb);
+        }
+
+        if (tin > tout)
+            return -1;
+
+        // the pixel the ray comes in at
+        int cx = Math.max(minx, Math.min(maxx, (int)Math.floor(px + ux*tin)));
+        int cy = Math.max(miny, Math.min(maxy, (int)Math.floor(py + uy*tin)));
+
+        // how far along the ray the next pixel edge in x and in y is, and how far apart the edges are
+        int stepx = ux > 0 ? 1 : -1;
+        int stepy = uy > 0 ? 1 : -1;
+        double nextx = ux > 0 ? (cx + 1 - px)/ux : (ux < 0 ? (cx - px)/ux : Double.POSITIVE_INFINITY);
+        double nexty = uy > 0 ? (cy + 1 - py)/uy : (uy < 0 ? (cy - py)/uy : Double.POSITIVE_INFINITY);
+        double deltax = ux != 0 ? Math.abs(1/ux) : Double.POSITIVE_INFINITY;
+        double deltay = uy != 0 ? Math.abs(1/uy) : Double.POSITIVE_INFINITY;
+
+        double t = tin;
+        while (true)
+        {
+            if (mask.get(cx, cy))
+            {
+                if (side == 0)
+                {
+                    hitnx = -stepx;
+                    hitny = 0;
+                }
+                else if (side == 1)
+                {
+                    hitnx = 0;
+                    hitny = -stepy;
+                }
+                else
+                {
+                    // started inside a solid pixel, say the surface faces back the way we came
+                    hitnx = -ux;
+                    hitny = -uy;
+                }
+                return t;
+            }
+
+            // step into the next pixel
+            if (nextx < nexty)
+            {
+                t = nextx;
+                cx += stepx;
+                nextx += deltax;
+                side = 0;
+                if (cx < minx || cx > maxx)
+                    return -1;
+            }
+            else
+            {
+                t = nexty;
+                cy += stepy;
+                nexty += deltay;
+                side = 1;
+                if (cy < miny || cy > maxy)
+                    return -1;
+            }
+
+            if (t > tout)
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * What a ray cast ran into.
+ */
+package goodsky;
+
+/**
+ * The result of a ray cast (GameObject.castRay, gs.castRay and gs.castRays). It tells you if the ray hit
+ * a collision object, which one, exactly where, and which way the surface it hit is facing.
+ *
+ * A RayHit is filled in again by every cast you give it to, so you can make one (or one per projectile)
+ * and keep using it, instead of making new ones every frame.
+ */
+public class RayHit
+{
+    // Did the ray hit something?
+    private boolean hit = false;
+
+    // The object it hit
+    private GameObject object = null;
+
+    // How far along the ray the hit is, and where it is
+    private double distance = -1;
+    private double x = 0;
+    private double y = 0;
+
+    // Which way the surface faces where it was hit
+    private double normalx = 0;
+    private double normaly = 0;
+
+    /**
+     * Make an empty RayHit to give to the ray casts.
+     */
+    public RayHit()
+    {
+    }
+
+    /**
+     * @return true if the ray hit a collision object
+     */
+    public boolean isHit()
+    {
+        return hit;
+    }
+
+    /**
+     * @return the object the ray hit, or null if it didn't hit anything
+     */
+    public GameObject getObject()
+    {
+        return object;
+    }
+
+    /**
+     * @return how far the ray went before it hit, or a negative number if it didn't hit anything
+     */
+    public double getDistance()
+    {
+        return distance;
+    }
+
+    /**
+     * @return the x position where the ray hit (the first point on the edge of the first solid pixel)
+     */
+    public double getX()
+    {
+        return x;
+    }
+
+    /**
+     * @return the y position where the ray hit (the first point on the edge of the first solid pixel)
+     */
+    public double getY()
+    {
+        return y;
+    }
+
+    /**
+     * @return the x part of the direction the surface that was hit is facing (length 1 together with y)
+     */
+    public double getNormalX()
+    {
+        return normalx;
+    }
+
+    /**
+     * @return the y part of the direction the surface that was hit is facing (length 1 together with x)
+     */
+    public double getNormalY()
+    {
+        return normaly;
+    }
+
+    /**
+     * Forget the last hit.
+     */
+    void miss()
+    {
+        hit = false;
+        object = null;
+        distance = -1;
+        x = 0;
+        y = 0;
+        normalx = 0;
+        normaly = 0;
+    }
+
+    /**
+     * Remember a hit.
+     */
+    void set(GameObject object, double distance, double x, double y, double normalx, double normaly)
+    {
+        this.hit = true;
+        this.object = object;
+        this.distance = distance;
+        this.x = x;
+        this.y = y;
+        this.normalx = normalx;
+        this.normaly = normaly;
+    }
+
+    public String toString()
+    {
+        if (!hit)
+            return "Ray Hit: nothing";
+
+        return "Ray Hit: " + object + " at " + x + ", " + y + " distance-" + distance;
+    }
+}
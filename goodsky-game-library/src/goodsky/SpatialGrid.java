@@ -0,0 +1,524 @@
+/*
+ * A uniform grid that buckets GameObjects by where their center is, so we can
+ * find everything near a rectangle without looking at every object.
+ */
+package goodsky;
+
+import java.util.*;
+
+/**
+ * Splits the world into square cells and remembers which objects are in which cell.
+ * Each object lives in the one cell that holds its center. Queries are grown by the
+ * biggest object half-size in the cells, so objects hanging over a cell edge are
+ * still found (a 'loose' grid).
+ *
+ * Objects more than a cell wider than their center (a huge boss, a long wall) aren't put in a cell,
+ * they are kept in a short list that every query checks. Otherwise one of them would make every
+ * query look at lots of cells around the rectangle.
+ *
+ * GameObject x and y are public fields, so the grid can't know when they change.
+ * Call refresh() before querying, it only compares the position of each object with
+ * the position it was filed at. Size changes come from scale/rotate/setImage through refresh(obj).
+ */
+class SpatialGrid
+{
+    // Size of one cell in pixels
+    private final int cellsize;
+
+    // cell key -> member numbers of the objects whose center is in that cell.
+    // An open addressing table on the raw long keys, so looking up a cell never boxes the key.
+    private long[] cellkeys = new long[64];
+    private Cell[] cells = new Cell[64];
+    private int cellcount = 0;
+
+    // Emptied cells kept for reuse, so objects moving around don't make new ones
+    private Cell[] freecells = new Cell[16];
+    private int freecount = 0;
+
+    // Every object in the grid, kept in flat arrays so refresh is a quick walk
+    private GameObject[] objs = new GameObject[64];
+    private double[] filedx = new double[64];
+    private double[] filedy = new double[64];
+    private Cell[] filedcell = new Cell[64];
+    private int[] filedslot = new int[64];
+    private int[] extents = new int[64];
+    private int count = 0;
+
+    // Member numbers of the objects too big to put in a cell (their filedcell is null and
+    // filedslot is where they are in this list)
+    private int[] bigs = new int[16];
+    private int bigcount = 0;
+
+    // object -> member number
+    private IdentityHashMap<GameObject, Integer> lookup = new IdentityHashMap<GameObject, Integer>();
+
+    // The largest half width/height of any object in the cells, and how many objects in
+    // the cells have each half size so we know when the largest one is gone
+    private int maxextent = 0;
+    private int[] extentcount;
+
+    /**
+     * Make an empty grid.
+     * @param cellsize size of one grid cell in pixels
+     */
+    SpatialGrid(int cellsize)
+    {
+        if (cellsize <= 0)
+            throw new GoodSkyException("The spatial index cell size has to be bigger than 0");
+
+        this.cellsize = cellsize;
+        extentcount = new int[cellsize + 1];
+    }
+
+    /**
+     * Add an object to the grid. Adding an object twice does nothing.
+     * @param obj the object to add
+     */
+    void add(GameObject obj)
+    {
+        if (lookup.containsKey(obj))
+            return;
+
+        if (count == objs.length)
+            grow();
+
+        int m = count++;
+        objs[m] = obj;
+        lookup.put(obj, m);
+
+        extents[m] = extent(obj);
+        place(m);
+    }
+
+    /**
+     * Take an object out of the grid.
+     * @param obj the object to remove
+     */
+    void remove(GameObject obj)
+    {
+        Integer found = lookup.remove(obj);
+        if (found == null)
+            return;
+
+        int m = found;
+        unplace(m);
+
+        // move the last member into this spot so removal doesn't shift everything
+        int last = --count;
+        if (m != last)
+        {
+            objs[m] = objs[last];
+            filedx[m] = filedx[last];
+            filedy[m] = filedy[last];
+            filedcell[m] = filedcell[last];
+            filedslot[m] = filedslot[last];
+            extents[m] = extents[last];
+            if (filedcell[m] != null)
+                filedcell[m].members[filedslot[m]] = m;
+            else
+                bigs[filedslot[m]] = m;
+            lookup.put(objs[m], m);
+        }
+
+        objs[last] = null;
+        filedcell[last] = null;
+    }
+
+    /**
+     * @param obj the object to look for
+     * @return true if the object is in this grid
+     */
+    boolean contains(GameObject obj)
+    {
+        return lookup.containsKey(obj);
+    }
+
+    /**
+     * @return how many objects are in the grid
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return the size of one cell in pixels
+     */
+    int cellsize()
+    {
+        return cellsize;
+    }
+
+    /**
+     * Move any objects that changed position since the last refresh into their new cells.
+     */
+    void refresh()
+    {
+        for (int m = 0; m < count; m++)
+        {
+            GameObject obj = objs[m];
+            if (obj.x != filedx[m] || obj.y != filedy[m])
+                move(m);
+        }
+    }
+
+    /**
+     * Re-file a single object right away (e.g. after it changed size).
+     * @param obj the object that changed
+     */
+    void refresh(GameObject obj)
+    {
+        Integer found = lookup.get(obj);
+        if (found == null)
+            return;
+
+        int m = found;
+        int e = extent(obj);
+        if (e == extents[m])
+        {
+            move(m);
+            return;
+        }
+
+        // file it again with its new size (it may have become too big for a cell, or small enough for one)
+        unplace(m);
+        extents[m] = e;
+        place(m);
+    }
+
+    /**
+     * Find every object that may overlap the rectangle. Objects may be returned that don't quite
+     * overlap, you still have to check them yourself.
+     * @param x1 left of the rectangle
+     * @param y1 top of the rectangle
+     * @param x2 right of the rectangle
+     * @param y2 bottom of the rectangle
+     * @param out list to add the objects to (it is not cleared first)
+     */
+    void query(double x1, double y1, double x2, double y2, ArrayList<GameObject> out)
+    {
+        int cx1 = cell(x1 - maxextent);
+        int cy1 = cell(y1 - maxextent);
+        int cx2 = cell(x2 + maxextent);
+        int cy2 = cell(y2 + maxextent);
+
+        for (int cx = cx1; cx <= cx2; cx++)
+        {
+            for (int cy = cy1; cy <= cy2; cy++)
+            {
+                Cell c = find(key(cx, cy));
+                if (c == null)
+                    continue;
+
+                for (int i = 0; i < c.size; i++)
+                    out.add(objs[c.members[i]]);
+            }
+        }
+
+        // the big objects that reach into the rectangle
+        for (int i = 0; i < bigcount; i++)
+        {
+            int m = bigs[i];
+            int e = extents[m];
+            if (filedx[m] - e <= x2 && filedx[m] + e >= x1 && filedy[m] - e <= y2 && filedy[m] + e >= y1)
+                out.add(objs[m]);
+        }
+    }
+
+    /**
+     * @return how far an object can reach from its center (half its biggest side, plus 1 for rounding)
+     */
+    private static int extent(GameObject obj)
+    {
+        obj.updateBound();
+        return Math.max(obj.boundwidth, obj.boundheight)/2 + 1;
+    }
+
+    /**
+     * A member moved, put it in its new cell if it changed cells.
+     */
+    private void move(int m)
+    {
+        GameObject obj = objs[m];
+        filedx[m] = obj.x;
+        filedy[m] = obj.y;
+
+        // big objects aren't in a cell, the new position is all they need
+        Cell c = filedcell[m];
+        if (c != null && (c.cx != cell(obj.x) || c.cy != cell(obj.y)))
+        {
+            unplace(m);
+            place(m);
+        }
+    }
+
+    /**
+     * Put a member in the cell for its current position.
+     */
+    private void place(int m)
+    {
+        GameObject obj = objs[m];
+        filedx[m] = obj.x;
+        filedy[m] = obj.y;
+
+        int e = extents[m];
+        if (e > cellsize)
+        {
+            if (bigcount == bigs.length)
+            {
+                int[] b = new int[bigcount * 2];
+                System.arraycopy(bigs, 0, b, 0, bigcount);
+                bigs = b;
+            }
+
+            filedcell[m] = null;
+            filedslot[m] = bigcount;
+            bigs[bigcount++] = m;
+            return;
+        }
+
+        extentcount[e]++;
+        if (e > maxextent)
+            maxextent = e;
+
+        int cx = cell(obj.x);
+        int cy = cell(obj.y);
+        long k = key(cx, cy);
+        Cell c = find(k);
+        if (c == null)
+        {
+            c = freecount > 0 ? freecells[--freecount] : new Cell();
+            c.cx = cx;
+            c.cy = cy;
+            insert(k, c);
+        }
+
+        filedcell[m] = c;
+        filedslot[m] = c.add(m);
+    }
+
+    /**
+     * Take a member out of its cell.
+     */
+    private void unplace(int m)
+    {
+        Cell c = filedcell[m];
+        if (c == null)
+        {
+            // the last big object takes this one's place in the list
+            int moved = bigs[--bigcount];
+            bigs[filedslot[m]] = moved;
+            filedslot[moved] = filedslot[m];
+            return;
+        }
+
+        // if that was the last of the biggest objects, queries don't have to reach as far now
+        int e = extents[m];
+        extentcount[e]--;
+        if (e == maxextent)
+        {
+            while (maxextent > 0 && extentcount[maxextent] == 0)
+                maxextent--;
+        }
+
+        // the last member of the cell takes this one's slot
+        int moved = c.removeAt(filedslot[m]);
+        if (moved != m)
+            filedslot[moved] = filedslot[m];
+
+        if (c.size == 0)
+        {
+            erase(key(c.cx, c.cy));
+
+            if (freecount == freecells.length)
+            {
+                Cell[] f = new Cell[freecount * 2];
+                System.arraycopy(freecells, 0, f, 0, freecount);
+                freecells = f;
+            }
+            freecells[freecount++] = c;
+        }
+    }
+
+    /**
+     * @return the cell with a key, or null if no object is in it
+     */
+    private Cell find(long k)
+    {
+        int mask = cells.length - 1;
+        for (int i = slot(k, mask); cells[i] != null; i = (i + 1) & mask)
+        {
+            if (cellkeys[i] == k)
+                return cells[i];
+        }
+
+        return null;
+    }
+
+    /**
+     * Put a cell in the table (its key isn't in there yet).
+     */
+    private void insert(long k, Cell c)
+    {
+        // keep the table at most half full so lookups stay short
+        if ((cellcount + 1) * 2 > cells.length)
+            rehash(cells.length * 2);
+
+        int mask = cells.length - 1;
+        int i = slot(k, mask);
+        while (cells[i] != null)
+            i = (i + 1) & mask;
+
+        cellkeys[i] = k;
+        cells[i] = c;
+        cellcount++;
+    }
+
+    /**
+     * Take a cell out of the table.
+     */
+    private void erase(long k)
+    {
+        int mask = cells.length - 1;
+        int i = slot(k, mask);
+        while (cells[i] != null && cellkeys[i] != k)
+            i = (i + 1) & mask;
+
+        if (cells[i] == null)
+            return;
+
+        cells[i] = null;
+        cellcount--;
+
+        // move later cells of the same run back so none of them is cut off from its slot by the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; cells[j] != null; j = (j + 1) & mask)
+        {
+            int home = slot(cellkeys[j], mask);
+
+            // can the cell at j move into the hole? only if its home isn't between the hole and j
+            boolean between = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!between)
+            {
+                cellkeys[hole] = cellkeys[j];
+                cells[hole] = cells[j];
+                cells[j] = null;
+                hole = j;
+            }
+        }
+    }
+
+    /**
+     * Make the cell table bigger.
+     */
+    private void rehash(int size)
+    {
+        long[] oldkeys = cellkeys;
+        Cell[] oldcells = cells;
+
+        cellkeys = new long[size];
+        cells = new Cell[size];
+        cellcount = 0;
+
+        for (int i = 0; i < oldcells.length; i++)
+        {
+            if (oldcells[i] != null)
+                insert(oldkeys[i], oldcells[i]);
+        }
+    }
+
+    /**
+     * @return the slot a key starts looking from (the bits are mixed so neighbouring cells spread out)
+     */
+    private static int slot(long k, int mask)
+    {
+        k *= 0x9E3779B97F4A7C15L;
+        return (int)(k >>> 32) & mask;
+    }
+
+    /**
+     * Make room for more members.
+     */
+    private void grow()
+    {
+        int n = objs.length * 2;
+
+        GameObject[] o = new GameObject[n];
+        System.arraycopy(objs, 0, o, 0, count);
+        objs = o;
+
+        double[] d = new double[n];
+        System.arraycopy(filedx, 0, d, 0, count);
+        filedx = d;
+
+        d = new double[n];
+        System.arraycopy(filedy, 0, d, 0, count);
+        filedy = d;
+
+        Cell[] c = new Cell[n];
+        System.arraycopy(filedcell, 0, c, 0, count);
+        filedcell = c;
+
+        int[] s = new int[n];
+        System.arraycopy(filedslot, 0, s, 0, count);
+        filedslot = s;
+
+        s = new int[n];
+        System.arraycopy(extents, 0, s, 0, count);
+        extents = s;
+    }
+
+    /**
+     * @return the cell a position falls in (rounding down for negative positions too)
+     */
+    private int cell(double pos)
+    {
+        return (int)Math.floor(pos / cellsize);
+    }
+
+    /**
+     * @return a single number for a cell so we can use it as a map key
+     */
+    private static long key(int cx, int cy)
+    {
+        return ((long)cx << 32) | (cy & 0xffffffffL);
+    }
+
+    /**
+     * The member numbers of the objects in one cell.
+     */
+    private static class Cell
+    {
+        int cx;
+        int cy;
+        int[] members = new int[4];
+        int size = 0;
+
+        /**
+         * @return the slot the member was put in
+         */
+        int add(int m)
+        {
+            if (size == members.length)
+            {
+                int[] n = new int[size * 2];
+                System.arraycopy(members, 0, n, 0, size);
+                members = n;
+            }
+
+            members[size] = m;
+            return size++;
+        }
+
+        /**
+         * Remove the member in a slot by moving the last member into it.
+         * @return the member that now sits in the slot (or the removed one if it was last)
+         */
+        int removeAt(int slot)
+        {
+            int removed = members[slot];
+            members[slot] = members[--size];
+            return slot == size ? removed : members[slot];
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * The sprites of an EntityStore or a ParticleSystem, looked up by id.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * A list of sprites, each one or more animation frames of the same size. Lots of entities or
+ * particles share each sprite, so they all draw the very same images.
+ *
+ * Particles are copied straight onto the screen a pixel at a time, so every frame can also be had
+ * as premultiplied ARGB pixels. Those are made the first time they are asked for and kept.
+ */
+class SpriteSet
+{
+    // What the sprites belong to, for error messages
+    private final String owner;
+
+    // sprite id -> its frames, and the size of each sprite
+    private BufferedImage[][] frames = new BufferedImage[8][];
+    int[] width = new int[8];
+    int[] height = new int[8];
+    private int count = 0;
+
+    // sprite id -> the Animation timing it, or null if it is only animated by hand
+    private Animation[] animations = new Animation[8];
+
+    // sprite id -> frame -> premultiplied pixels (made when first used)
+    private int[][][] pixels = new int[8][][];
+
+    /**
+     * Make an empty sprite list.
+     * @param owner what the sprites belong to, e.g. "EntityStore"
+     */
+    SpriteSet(String owner)
+    {
+        this.owner = owner;
+    }
+
+    /**
+     * Add a sprite from an image file.
+     * @return the sprite id
+     */
+    int addFile(String filename)
+    {
+        try {
+            return add(new BufferedImage[] { AssetCache.getImage(filename) });
+        } catch (IOException e) {
+            throw new GoodSkyException("BUMMER! I couldn't load the image file for a sprite in this " + owner + "! Make sure you typed the file name correctly!");
+        }
+    }
+
+    /**
+     * Add an animated sprite from an image file with the frames on top of each other.
+     * @return the sprite id
+     */
+    int addAnimated(String filename, int w, int h, int n)
+    {
+        try {
+            return add(AssetCache.getFrames(filename, w, h, n));
+        } catch (IOException e) {
+            throw new GoodSkyException("BUMMER! I couldn't load the image file for a sprite in this " + owner + "! Make sure you typed the file name correctly!");
+        }
+    }
+
+    /**
+     * Add a sprite that is a plain shape.
+     * @return the sprite id
+     */
+    int addShape(int shape, int size, Color c)
+    {
+        return add(new BufferedImage[] { GameObject.shapeImage(shape, size, c) });
+    }
+
+    /**
+     * Add a sprite made of some images (they are not copied, so they must not change).
+     * @return the sprite id
+     */
+    int add(BufferedImage[] images)
+    {
+        if (images == null || images.length == 0)
+            throw new GoodSkyException("A sprite in this " + owner + " needs at least one image");
+
+        if (count == frames.length)
+        {
+            int n = count * 2;
+
+            BufferedImage[][] f = new BufferedImage[n][];
+            System.arraycopy(frames, 0, f, 0, count);
+            frames = f;
+
+            Animation[] an = new Animation[n];
+            System.arraycopy(animations, 0, an, 0, count);
+            animations = an;
+
+            int[][][] p = new int[n][][];
+            System.arraycopy(pixels, 0, p, 0, count);
+            pixels = p;
+
+            int[] a = new int[n];
+            System.arraycopy(width, 0, a, 0, count);
+            width = a;
+
+            a = new int[n];
+            System.arraycopy(height, 0, a, 0, count);
+            height = a;
+        }
+
+        BufferedImage[] copy = new BufferedImage[images.length];
+        System.arraycopy(images, 0, copy, 0, images.length);
+
+        frames[count] = copy;
+        width[count] = copy[0].getWidth();
+        height[count] = copy[0].getHeight();
+        return count++;
+    }
+
+    /**
+     * Add a sprite that plays an Animation by the game clock.
+     * @return the sprite id
+     */
+    int addAnimation(Animation anim)
+    {
+        if (anim == null)
+            throw new GoodSkyException("You can't add a null Animation to this " + owner + ", make one first");
+
+        int sprite = add(anim.frames());
+        animations[sprite] = anim;
+        return sprite;
+    }
+
+    /**
+     * @return the Animation timing a sprite, or null if it doesn't have one
+     */
+    Animation animation(int sprite)
+    {
+        return animations[sprite];
+    }
+
+    /**
+     * Make sure a sprite id is one we handed out.
+     */
+    void check(int sprite)
+    {
+        if (sprite < 0 || sprite >= count)
+            throw new GoodSkyException("There is no sprite " + sprite + " in this " + owner + ", use addSprite first");
+    }
+
+    /**
+     * @return how many frames a sprite has
+     */
+    int frames(int sprite)
+    {
+        return frames[sprite].length;
+    }
+
+    /**
+     * @return a frame of a sprite (frames past the last one wrap around)
+     */
+    BufferedImage image(int sprite, int frame)
+    {
+        BufferedImage[] f = frames[sprite];
+        return f[frame % f.length];
+    }
+
+    /**
+     * @return a frame of a sprite as premultiplied ARGB pixels, a row at a time (frames past the last one wrap around)
+     */
+    int[] pixels(int sprite, int frame)
+    {
+        BufferedImage[] f = frames[sprite];
+        frame %= f.length;
+
+        if (pixels[sprite] == null)
+            pixels[sprite] = new int[f.length][];
+
+        int[] p = pixels[sprite][frame];
+        if (p == null)
+        {
+            int w = width[sprite];
+            int h = height[sprite];
+            p = f[frame].getRGB(0, 0, w, h, null, 0, w);
+
+            for (int i = 0; i < p.length; i++)
+            {
+                int a = p[i] >>> 24;
+                if (a == 0)
+                    p[i] = 0;
+                else if (a < 255)
+                {
+                    int r = ((p[i] >> 16) & 0xFF) * a / 255;
+                    int g = ((p[i] >> 8) & 0xFF) * a / 255;
+                    int b = (p[i] & 0xFF) * a / 255;
+                    p[i] = (a << 24) | (r << 16) | (g << 8) | b;
+                }
+            }
+
+            pixels[sprite][frame] = p;
+        }
+
+        return p;
+    }
+}
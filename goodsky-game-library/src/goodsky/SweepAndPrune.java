@@ -0,0 +1,210 @@
+/*
+ * Finds every pair of overlapping collision objects at once, by sorting
+ * them left to right and only comparing neighbours.
+ */
+package goodsky;
+
+import java.util.*;
+
+/**
+ * Sweep and prune: every collision object covers a range of x. The objects are kept sorted by
+ * the left end of their range, so walking the list from left to right, an object can only overlap
+ * the objects after it that start before it ends. Only those pairs are checked for real.
+ *
+ * The order is kept from one call to the next. Objects don't move much between frames, so the
+ * list is almost sorted already and an insertion sort puts it right in about one pass.
+ */
+class SweepAndPrune
+{
+    // The objects sorted by the left end of their range, and their ranges (y too, for a quick check)
+    private GameObject[] objs = new GameObject[64];
+    private double[] lo = new double[64];
+    private double[] hi = new double[64];
+    private double[] top = new double[64];
+    private double[] bottom = new double[64];
+    private int count = 0;
+
+    // The collision index (and its version) the list was last matched with
+    private CollisionIndex matched = null;
+    private int version = 0;
+
+    // The overlapping pairs found by the last call, the pair arrays are reused
+    private ArrayList<GameObject[]> pairs = new ArrayList<GameObject[]>();
+    private ArrayList<GameObject[]> spare = new ArrayList<GameObject[]>();
+
+    // Used when matching the list with the index
+    private IdentityHashMap<GameObject, Boolean> kept = new IdentityHashMap<GameObject, Boolean>();
+
+    /**
+     * Find every pair of collision objects that overlap.
+     * @param index the collision objects
+     * @param type gs.COL_BOX, gs.COL_CIRCLE or gs.COL_PIXEL
+     * @return each overlapping pair once (the list and the pairs in it are reused by the next call)
+     */
+    ArrayList<GameObject[]> overlaps(CollisionIndex index, int type)
+    {
+        if (type != gs.COL_BOX && type != gs.COL_CIRCLE && type != gs.COL_PIXEL)
+            throw new GoodSkyException("Unknown collision type: " + type);
+
+        if (matched != index || version != index.version())
+        {
+            match(index.objects());
+            matched = index;
+            version = index.version();
+        }
+
+        // the range each object covers
+        for (int i = 0; i < count; i++)
+        {
+            GameObject obj = objs[i];
+
+            int w;
+            int h;
+            if (type == gs.COL_BOX)
+            {
+                w = obj.width()/2;
+                h = obj.height()/2;
+            }
+            else if (type == gs.COL_CIRCLE)
+            {
+                w = obj.radius();
+                h = w;
+            }
+            else
+            {
+                obj.updateBound();
+                w = obj.boundwidth/2;
+                h = obj.boundheight/2;
+            }
+
+            lo[i] = obj.x - w;
+            hi[i] = obj.x + w;
+            top[i] = obj.y - h;
+            bottom[i] = obj.y + h;
+        }
+
+        sort();
+
+        for (int i = 0; i < pairs.size(); i++)
+            spare.add(pairs.get(i));
+        pairs.clear();
+
+        // Two objects can only overlap if their x ranges overlap (isOverlap checks |dx| < w1 + w2)
+        for (int i = 0; i < count; i++)
+        {
+            for (int j = i + 1; j < count && lo[j] < hi[i]; j++)
+            {
+                if (top[j] >= bottom[i] || top[i] >= bottom[j])
+                    continue;
+
+                if (objs[i].isOverlap(objs[j], type))
+                {
+                    GameObject[] pair = spare.isEmpty() ? new GameObject[2] : spare.remove(spare.size() - 1);
+                    pair[0] = objs[i];
+                    pair[1] = objs[j];
+                    pairs.add(pair);
+                }
+            }
+        }
+
+        // don't hold on to objects that may get destroyed
+        for (int i = 0; i < spare.size(); i++)
+        {
+            GameObject[] pair = spare.get(i);
+            pair[0] = null;
+            pair[1] = null;
+        }
+
+        return pairs;
+    }
+
+    /**
+     * Make the list hold exactly the objects in the index, keeping the order of the ones already in it.
+     */
+    private void match(Collection<GameObject> members)
+    {
+        kept.clear();
+        for (GameObject obj : members)
+            kept.put(obj, Boolean.FALSE);
+
+        // drop the ones that are gone
+        int n = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (kept.containsKey(objs[i]))
+            {
+                kept.put(objs[i], Boolean.TRUE);
+                objs[n++] = objs[i];
+            }
+        }
+        for (int i = n; i < count; i++)
+            objs[i] = null;
+        count = n;
+
+        // add the new ones at the end, the sort moves them into place
+        for (GameObject obj : members)
+        {
+            if (kept.get(obj) == Boolean.TRUE)
+                continue;
+
+            if (count == objs.length)
+                grow();
+
+            objs[count++] = obj;
+        }
+
+        kept.clear();
+    }
+
+    /**
+     * Insertion sort by the left end of the ranges (fast when the list is nearly sorted).
+     */
+    private void sort()
+    {
+        for (int i = 1; i < count; i++)
+        {
+            double l = lo[i];
+            if (lo[i - 1] <= l)
+                continue;
+
+            GameObject o = objs[i];
+            double h = hi[i];
+            double t = top[i];
+            double b = bottom[i];
+
+            int j = i - 1;
+            while (j >= 0 && lo[j] > l)
+            {
+                objs[j + 1] = objs[j];
+                lo[j + 1] = lo[j];
+                hi[j + 1] = hi[j];
+                top[j + 1] = top[j];
+                bottom[j + 1] = bottom[j];
+                j--;
+            }
+
+            objs[j + 1] = o;
+            lo[j + 1] = l;
+            hi[j + 1] = h;
+            top[j + 1] = t;
+            bottom[j + 1] = b;
+        }
+    }
+
+    /**
+     * Make room for more objects.
+     */
+    private void grow()
+    {
+        int n = objs.length * 2;
+
+        GameObject[] o = new GameObject[n];
+        System.arraycopy(objs, 0, o, 0, count);
+        objs = o;
+
+        lo = new double[n];
+        hi = new double[n];
+        top = new double[n];
+        bottom = new double[n];
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Keeps pictures of text we have drawn recently, so drawing the same text
+ * again next frame is just copying an image.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * A cache of pre-drawn strings. Each string is drawn once into a see-through image,
+ * after that it can be copied to the screen without laying out the letters again.
+ * When the cache is full the text that was used longest ago is thrown away.
+ *
+ * Text is only put in the cache the second time we see it. Text that changes every frame
+ * (a timer, a score going up) would make a new image each frame and push the text that
+ * does repeat out of the cache, so the first time we only remember that we saw it and
+ * it is drawn straight to the screen with drawString instead.
+ */
+class TextCache
+{
+    // Extra pixels around the text for letters that hang past their width (e.g. italics)
+    static final int PAD = 2;
+
+    // How many different strings we keep at most
+    private final int maxentries;
+
+    // Remembers the order strings were used in so we can throw out the oldest one
+    private LinkedHashMap<Key, BufferedImage> cache;
+
+    // Reused for lookups so checking the cache doesn't make garbage
+    private Key probe = new Key();
+
+    // Hashes of text we have seen once but not cached yet, a slot per hash so it never makes garbage
+    // (two strings landing in the same slot just means one of them gets cached a frame later or sooner)
+    private int[] seen;
+
+    // Used to measure text before we draw it
+    private Graphics2D measure;
+
+    /**
+     * Make an empty text cache.
+     * @param maxentries the most strings to remember
+     */
+    TextCache(int maxentries)
+    {
+        this.maxentries = maxentries;
+        this.cache = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest)
+            {
+                return size() > TextCache.this.maxentries;
+            }
+        };
+
+        measure = (Graphics2D)new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).getGraphics();
+
+        int n = 16;
+        while (n < maxentries * 4)
+            n *= 2;
+        seen = new int[n];
+    }
+
+    /**
+     * Get the picture of a string. The first time we see a string we only remember it and return null,
+     * the second time we draw the picture and keep it. Only call this once per string per frame.
+     * The text baseline is at getAscent(font) + PAD from the top, and the left edge at PAD.
+     * @param msg the text
+     * @param col color of the text
+     * @param font font of the text
+     * @return the picture of the text, or null if it should be drawn with draw() (or there is nothing to draw)
+     */
+    BufferedImage get(String msg, Color col, Font font)
+    {
+        probe.msg = msg;
+        probe.rgb = col.getRGB();
+        probe.font = font;
+
+        BufferedImage img = cache.get(probe);
+        if (img != null)
+            return img;
+
+        // not seen before, just remember it
+        int h = probe.hashCode();
+        int slot = (h ^ (h >>> 16)) & (seen.length - 1);
+        if (seen[slot] != h)
+        {
+            seen[slot] = h;
+            return null;
+        }
+        seen[slot] = 0;
+
+        FontMetrics fm = measure.getFontMetrics(font);
+        int w = fm.stringWidth(msg);
+        if (w <= 0)
+            return null;
+
+        img = new BufferedImage(w + PAD*2, fm.getHeight() + PAD*2, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = (Graphics2D)img.getGraphics();
+        g.setFont(font);
+        g.setColor(col);
+        g.drawString(msg, PAD, PAD + fm.getAscent());
+        g.dispose();
+
+        Key k = new Key();
+        k.msg = msg;
+        k.rgb = probe.rgb;
+        k.font = font;
+        cache.put(k, img);
+
+        return img;
+    }
+
+    /**
+     * Draw a string straight onto the screen, for text that isn't in the cache.
+     * @param g the graphics to draw on
+     * @param msg the text
+     * @param col color of the text
+     * @param font font of the text
+     * @param x left edge of the text
+     * @param y the text baseline
+     */
+    static void draw(Graphics2D g, String msg, Color col, Font font, int x, int y)
+    {
+        g.setFont(font);
+        g.setColor(col);
+        g.drawString(msg, x, y);
+    }
+
+    /**
+     * @return how wide the picture of the text is (or would be), including the PAD on both sides
+     */
+    int getWidth(String msg, Font font)
+    {
+        return measure.getFontMetrics(font).stringWidth(msg) + PAD*2;
+    }
+
+    /**
+     * @return how tall a picture of text in this font is, including the PAD on both sides
+     */
+    int getHeight(Font font)
+    {
+        return measure.getFontMetrics(font).getHeight() + PAD*2;
+    }
+
+    /**
+     * @return how far the top of the text is above the baseline
+     */
+    int getAscent(Font font)
+    {
+        return measure.getFontMetrics(font).getAscent();
+    }
+
+    /**
+     * Forget all the text pictures.
+     */
+    void clear()
+    {
+        cache.clear();
+        Arrays.fill(seen, 0);
+    }
+
+    /**
+     * What makes a text picture different from another one.
+     */
+    private static class Key
+    {
+        String msg;
+        int rgb;
+        Font font;
+
+        public int hashCode()
+        {
+            return (msg.hashCode() * 31 + rgb) * 31 + font.hashCode();
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+                return false;
+
+            Key k = (Key)o;
+            return rgb == k.rgb && msg.equals(k.msg) && font.equals(k.font);
+        }
+    }
+}
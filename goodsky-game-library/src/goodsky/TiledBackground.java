@@ -0,0 +1,443 @@
+/*
+ * A background for really big worlds. The image is cut into tiles that are saved
+ * in a cache file, and only the tiles near the camera are loaded into memory.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Draws a huge background image without ever holding the whole thing in memory.
+ *
+ * The first time an image is used it is cut into square tiles and the raw pixels are
+ * written to a tile cache file in the temp folder (the file is reused next time as long
+ * as the image didn't change). The files are called goodsky-tiles-*.bin and can be deleted
+ * whenever no game is running. An image only keeps one cache file: building a new one (because
+ * the image changed or a different tile size was asked for) deletes the old ones for that image.
+ * The cache file is memory mapped, so loading a tile is just
+ * copying its pixels out of the map. Tiles around the camera are loaded ahead of time on
+ * a background thread and tiles far away from the camera are thrown out.
+ */
+class TiledBackground
+{
+    // Most memory we decode at once while building the cache file
+    private static final long BUILD_BAND_BYTES = 64L * 1024 * 1024;
+
+    // How many tiles past the edge of the screen we load ahead of time
+    private static final int PREFETCH_RING = 1;
+
+    private final int tilesize;
+    private final int width;
+    private final int height;
+    private final int cols;
+    private final int rows;
+
+    // The tile cache file, mapped one row of tiles at a time (a single map is limited to 2GB)
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer[] maps;
+
+    // Loaded tiles (tile key -> pixels) and tiles that are being loaded in the background
+    private HashMap<Long, BufferedImage> tiles = new HashMap<Long, BufferedImage>();
+    private HashSet<Long> pending = new HashSet<Long>();
+
+    // The tiles the camera could see last time, plus the ring around them
+    private int keepx1, keepy1, keepx2, keepy2;
+
+    private ExecutorService loader;
+
+    /**
+     * Open a tiled background, building its tile cache file if needed.
+     * @param filename the image file
+     * @param tilesize size of the square tiles in pixels
+     */
+    TiledBackground(String filename, int tilesize) throws IOException
+    {
+        if (tilesize <= 0)
+            throw new GoodSkyException("The background tile size has to be bigger than 0");
+
+        this.tilesize = tilesize;
+
+        File source = new File(filename);
+        ImageInputStream in = ImageIO.createImageInputStream(source);
+        if (in == null)
+            throw new IOException("Could not open " + filename);
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                throw new IOException("Unknown image type " + filename);
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                cols = (width + tilesize - 1) / tilesize;
+                rows = (height + tilesize - 1) / tilesize;
+
+                // Name the cache after the image and when it was changed so a new image gets a new cache
+                // (a SHA-1 of all that, so two different images never end up sharing a cache file).
+                // The name starts with a SHA-1 of just the path so we can find the old caches of the same image.
+                String path = source.getCanonicalPath();
+                String id = path + "|" + source.lastModified() + "|" + source.length() + "|" + tilesize;
+                String prefix = "goodsky-tiles-" + digest(path).substring(0, 16) + "-";
+                File cache = new File(System.getProperty("java.io.tmpdir"), prefix + digest(id) + ".bin");
+
+                if (!cache.exists() || cache.length() != (long)cols * rows * tilebytes())
+                {
+                    build(reader, cache);
+                    delete_stale(cache, prefix);
+                }
+
+                file = new RandomAccessFile(cache, "r");
+                channel = file.getChannel();
+                maps = new MappedByteBuffer[rows];
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        loader = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "goodsky-tile-loader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return width of the whole background in pixels
+     */
+    int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return height of the whole background in pixels
+     */
+    int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Draw the part of the background the camera can see. Tiles that aren't loaded yet are loaded right now.
+     * @param g graphics to draw on
+     * @param camerax left of the camera in the world
+     * @param cameray top of the camera in the world
+     * @param w width of the screen
+     * @param h height of the screen
+     */
+    void draw(Graphics g, int camerax, int cameray, int w, int h)
+    {
+        int tx1 = Math.max(0, camerax / tilesize);
+        int ty1 = Math.max(0, cameray / tilesize);
+        int tx2 = Math.min(cols - 1, (camerax + w - 1) / tilesize);
+        int ty2 = Math.min(rows - 1, (cameray + h - 1) / tilesize);
+
+        for (int ty = ty1; ty <= ty2; ty++)
+        {
+            for (int tx = tx1; tx <= tx2; tx++)
+                g.drawImage(tile(tx, ty), tx * tilesize - camerax, ty * tilesize - cameray, null);
+        }
+    }
+
+    /**
+     * The camera moved. Start loading the tiles around it and forget the tiles that are far away.
+     * @param camerax left of the camera in the world
+     * @param cameray top of the camera in the world
+     * @param w width of the screen
+     * @param h height of the screen
+     */
+    void prefetch(int camerax, int cameray, int w, int h)
+    {
+        int tx1 = Math.max(0, camerax / tilesize - PREFETCH_RING);
+        int ty1 = Math.max(0, cameray / tilesize - PREFETCH_RING);
+        int tx2 = Math.min(cols - 1, (camerax + w - 1) / tilesize + PREFETCH_RING);
+        int ty2 = Math.min(rows - 1, (cameray + h - 1) / tilesize + PREFETCH_RING);
+
+        synchronized (this)
+        {
+            keepx1 = tx1;
+            keepy1 = ty1;
+            keepx2 = tx2;
+            keepy2 = ty2;
+
+            // throw out the tiles we moved away from
+            Iterator<Long> it = tiles.keySet().iterator();
+            while (it.hasNext())
+            {
+                long k = it.next();
+                if (!keep((int)(k >> 32), (int)k))
+                    it.remove();
+            }
+        }
+
+        for (int ty = ty1; ty <= ty2; ty++)
+        {
+            for (int tx = tx1; tx <= tx2; tx++)
+            {
+                final int fx = tx;
+                final int fy = ty;
+                Long k = key(tx, ty);
+
+                synchronized (this)
+                {
+                    if (tiles.containsKey(k) || pending.contains(k))
+                        continue;
+                    pending.add(k);
+                }
+
+                loader.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        tile(fx, fy);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Stop loading tiles and let go of the cache file.
+     */
+    void close()
+    {
+        loader.shutdownNow();
+
+        synchronized (this)
+        {
+            tiles.clear();
+            maps = new MappedByteBuffer[rows];
+            channel = null;
+
+            try {
+                file.close();
+            }
+            catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Get a tile, loading it from the cache file if it isn't in memory.
+     * @return the tile, or null if the background was closed
+     */
+    private BufferedImage tile(int tx, int ty)
+    {
+        Long k = key(tx, ty);
+        MappedByteBuffer map;
+
+        synchronized (this)
+        {
+            BufferedImage img = tiles.get(k);
+            if (img != null)
+                return img;
+
+            // closed while this tile was waiting to load
+            if (channel == null)
+                return null;
+
+            map = map(ty);
+            if (map == null)
+                return null;
+        }
+
+        // Copy the pixels straight out of the mapped file into the tile
+        BufferedImage img = new BufferedImage(tilesize, tilesize, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+
+        IntBuffer src = map.duplicate().asIntBuffer();
+        src.position(tx * tilesize * tilesize);
+        src.get(pixels);
+
+        synchronized (this)
+        {
+            pending.remove(k);
+
+            // only hang on to it if the camera is still nearby
+            if (keep(tx, ty))
+                tiles.put(k, img);
+        }
+
+        return img;
+    }
+
+    /**
+     * @return the mapped row of tiles, or null if the background is being closed (call this while holding the lock)
+     */
+    private MappedByteBuffer map(int ty)
+    {
+        if (maps[ty] == null)
+        {
+            try {
+                long rowbytes = (long)cols * tilebytes();
+                maps[ty] = channel.map(FileChannel.MapMode.READ_ONLY, ty * rowbytes, rowbytes);
+            }
+            catch (ClosedByInterruptException e) {
+                // close() stopped the loader thread while it was mapping
+                return null;
+            }
+            catch (IOException e) {
+                throw new GoodSkyException("BUMMER! I couldn't read the background tile cache file.");
+            }
+        }
+
+        return maps[ty];
+    }
+
+    /**
+     * @return true if the tile is near enough to the camera to keep in memory
+     */
+    private boolean keep(int tx, int ty)
+    {
+        return tx >= keepx1 && tx <= keepx2 && ty >= keepy1 && ty <= keepy2;
+    }
+
+    /**
+     * Cut the image into tiles and write them to the cache file. We decode a band of tile rows at a
+     * time so we never need the whole image in memory.
+     */
+    private void build(ImageReader reader, File cache) throws IOException
+    {
+        long tilerowbytes = (long)width * tilesize * 4;
+        int bandrows = (int)Math.max(1, BUILD_BAND_BYTES / tilerowbytes);
+
+        // Write to a temp file of our own first so a half built cache is never used,
+        // even if another game is building the same cache at the same time
+        File temp = File.createTempFile("goodsky-tiles-", ".part", cache.getAbsoluteFile().getParentFile());
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        boolean built = false;
+
+        try {
+            FileChannel ch = out.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(tilebytes());
+            IntBuffer ints = buf.asIntBuffer();
+            int[] row = new int[tilesize];
+
+            for (int band = 0; band < rows; band += bandrows)
+            {
+                int y = band * tilesize;
+                int h = Math.min(bandrows * tilesize, height - y);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, y, width, h));
+                BufferedImage strip = reader.read(0, param);
+
+                for (int ty = band; ty < Math.min(rows, band + bandrows); ty++)
+                {
+                    for (int tx = 0; tx < cols; tx++)
+                    {
+                        ints.clear();
+
+                        // pixels past the edge of the image are left black
+                        int x0 = tx * tilesize;
+                        int y0 = (ty - band) * tilesize;
+                        int w = Math.min(tilesize, width - x0);
+                        for (int j = 0; j < tilesize; j++)
+                        {
+                            Arrays.fill(row, 0);
+                            if (y0 + j < h)
+                                strip.getRGB(x0, y0 + j, w, 1, row, 0, tilesize);
+                            ints.put(row);
+                        }
+
+                        buf.clear();
+                        ch.write(buf, ((long)ty * cols + tx) * tilebytes());
+                    }
+                }
+            }
+            built = true;
+        }
+        finally {
+            out.close();
+            if (!built)
+                temp.delete();
+        }
+
+        if (temp.renameTo(cache))
+            return;
+
+        // some systems won't rename over a file that is already there
+        cache.delete();
+        if (temp.renameTo(cache))
+            return;
+
+        // someone else finished the same cache first, theirs is just as good
+        temp.delete();
+        if (cache.length() != (long)cols * rows * tilebytes())
+            throw new IOException("Could not write the tile cache " + cache);
+    }
+
+    /**
+     * Delete the other cache files of the same image (older versions of it or other tile sizes),
+     * they can be hundreds of MB each. One that another game still has open may not go away, that's fine.
+     */
+    private static void delete_stale(File cache, String prefix)
+    {
+        File[] old = cache.getAbsoluteFile().getParentFile().listFiles();
+        if (old == null)
+            return;
+
+        for (int i = 0; i < old.length; i++)
+        {
+            String name = old[i].getName();
+            if (name.startsWith(prefix) && name.endsWith(".bin") && !name.equals(cache.getName()))
+                old[i].delete();
+        }
+    }
+
+    /**
+     * @return the SHA-1 of a string as 40 hex digits
+     */
+    private static String digest(String id)
+    {
+        try {
+            byte[] sha = java.security.MessageDigest.getInstance("SHA-1").digest(id.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(sha.length * 2);
+            for (int i = 0; i < sha.length; i++)
+                hex.append(Character.forDigit((sha[i] >> 4) & 15, 16)).append(Character.forDigit(sha[i] & 15, 16));
+            return hex.toString();
+        }
+        catch (java.security.GeneralSecurityException e) {
+            throw new GoodSkyException("BUMMER! This Java doesn't have SHA-1 to name the background tile cache with.");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new GoodSkyException("BUMMER! This Java doesn't have UTF-8 to name the background tile cache with.");
+        }
+    }
+
+    /**
+     * @return bytes taken by one tile in the cache file
+     */
+    private int tilebytes()
+    {
+        return tilesize * tilesize * 4;
+    }
+
+    /**
+     * @return a single number for a tile so we can use it as a map key
+     */
+    private static long key(int tx, int ty)
+    {
+        return ((long)tx << 32) | (ty & 0xffffffffL);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Keeps turned and scaled copies of images so a spinning sprite doesn't
+ * have to be redrawn into a brand new image every frame.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * A cache of pre-drawn rotated and scaled versions of images, shared by every object that
+ * uses the same image (objects loading the same file share their frames, see AssetCache).
+ *
+ * Angles are rounded to one of a fixed number of steps around the circle (360 by default, so
+ * to the nearest degree) and scales to the nearest 1/64th. That way a spinning sprite only ever
+ * needs a limited number of different pictures, and after the first turn they all come out of
+ * the cache. When the pictures take more memory than the budget the one used longest ago is
+ * thrown away.
+ *
+ * With 0 steps nothing is rounded or cached, every change draws a new image like before.
+ */
+class TransformCache
+{
+    // Scales are rounded to this many steps per 1.0
+    static final int SCALE_STEPS = 64;
+
+    // How many angles there are around the circle (0 means don't round or cache)
+    private static int steps = 360;
+
+    // Most memory the cached pictures may take, and how much they take now (in bytes)
+    private static long budget = 32L * 1024 * 1024;
+    private static long bytes = 0;
+
+    // Remembers the order pictures were used in so we can throw out the oldest one
+    private static LinkedHashMap<Key, BufferedImage> cache = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+
+    // Reused for lookups so checking the cache doesn't make garbage
+    private static Key probe = new Key();
+
+    private TransformCache() { }
+
+    /**
+     * @return how many angles there are around the circle (0 if angles aren't rounded)
+     */
+    static synchronized int getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * Change how many angles there are around the circle. This empties the cache.
+     * @param n number of angles, 0 to turn rounding and caching off
+     */
+    static synchronized void setSteps(int n)
+    {
+        if (n < 0)
+            throw new GoodSkyException("The number of rotation steps can't be negative");
+
+        steps = n;
+        clear();
+    }
+
+    /**
+     * Change how much memory the cached pictures may take.
+     * @param max the budget in bytes
+     */
+    static synchronized void setBudget(long max)
+    {
+        budget = max;
+        trim();
+    }
+
+    /**
+     * Forget all the cached pictures.
+     */
+    static synchronized void clear()
+    {
+        cache.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Round an angle to the nearest step.
+     * @param angle the angle in radians (0 to 2 pi)
+     * @return the rounded angle in radians
+     */
+    static synchronized double quantizeAngle(double angle)
+    {
+        if (steps <= 0)
+            return angle;
+
+        return angleStep(angle) * 2 * Math.PI / steps;
+    }
+
+    /**
+     * Round a scale to the nearest 1/SCALE_STEPS (but never all the way to 0).
+     * @param scale the scale
+     * @return the rounded scale
+     */
+    static synchronized double quantizeScale(double scale)
+    {
+        if (steps <= 0)
+            return scale;
+
+        return scaleStep(scale) / (double)SCALE_STEPS;
+    }
+
+    /**
+     * Get an image turned and scaled, from the cache if we have drawn it before.
+     * The angle and scales should already be rounded with quantizeAngle and quantizeScale.
+     * @param src the original image
+     * @param angle angle in radians
+     * @param xScale scale across
+     * @param yScale scale up and down
+     * @param boundwidth width of the box the turned image fits in
+     * @param boundheight height of the box the turned image fits in
+     * @return the transformed image (shared, don't draw on it!)
+     */
+    static synchronized BufferedImage get(BufferedImage src, double angle, double xScale, double yScale, int boundwidth, int boundheight)
+    {
+        if (steps <= 0)
+            return render(src, angle, xScale, yScale, boundwidth, boundheight);
+
+        // Not turned or scaled at all, the original is fine as it is
+        if (xScale == 1.0 && yScale == 1.0 && angle == 0.0)
+            return src;
+
+        probe.src = src;
+        probe.angle = angleStep(angle);
+        probe.xs = scaleStep(xScale);
+        probe.ys = scaleStep(yScale);
+
+        BufferedImage img = cache.get(probe);
+        if (img != null)
+            return img;
+
+        img = render(src, angle, xScale, yScale, boundwidth, boundheight);
+
+        Key k = new Key();
+        k.src = src;
+        k.angle = probe.angle;
+        k.xs = probe.xs;
+        k.ys = probe.ys;
+        cache.put(k, img);
+
+        bytes += size(img);
+        trim();
+
+        probe.src = null;
+        return img;
+    }
+
+    /**
+     * Draw an image turned and scaled into a new image.
+     */
+    private static BufferedImage render(BufferedImage src, double angle, double xScale, double yScale, int boundwidth, int boundheight)
+    {
+        // Create the new empty image in the screen format (turning a solid image leaves clear corners)
+        int transparency = src.getColorModel().getTransparency() == Transparency.TRANSLUCENT ? Transparency.TRANSLUCENT : Transparency.BITMASK;
+        BufferedImage image = CompatibleImages.create(boundwidth, boundheight, transparency);
+        Graphics2D gtemp = (Graphics2D)image.getGraphics();
+
+        // If we are at the original scale and rotation then don't do any transformations
+        if (xScale == 1.0 && yScale == 1.0 && angle == 0.0)
+        {
+            gtemp.drawImage(src, 0, 0, null);
+        }
+        // If we have transformations to do, then draw them
+        else
+        {
+            // prep the more complex transformation
+            AffineTransform tx = new AffineTransform();
+
+            // rotate the image
+            tx.rotate(angle, image.getWidth()/2, image.getHeight()/2);
+
+            // Move it to the appropriate spot of the rotation
+            tx.translate((boundwidth - (src.getWidth()*xScale))/2, (boundheight - (src.getHeight()*yScale))/2);
+
+            // First scale the image so it fits into our new box
+            tx.scale(xScale, yScale);
+
+            // Draw the final image with translations and everything
+            gtemp.drawImage(src, tx, null);
+        }
+
+        // stop the graphics
+        gtemp.dispose();
+
+        return image;
+    }
+
+    /**
+     * Throw out the pictures used longest ago until we are under budget (but keep the newest one).
+     */
+    private static void trim()
+    {
+        Iterator<Map.Entry<Key, BufferedImage>> it = cache.entrySet().iterator();
+        while (bytes > budget && cache.size() > 1)
+        {
+            bytes -= size(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * @return which step an angle is closest to
+     */
+    private static int angleStep(double angle)
+    {
+        int s = (int)Math.round(angle * steps / (2 * Math.PI)) % steps;
+        return s < 0 ? s + steps : s;
+    }
+
+    /**
+     * @return which scale step a scale is closest to (never 0, mirrored scales stay negative)
+     */
+    private static int scaleStep(double scale)
+    {
+        int s = (int)Math.round(scale * SCALE_STEPS);
+        if (s == 0)
+            s = scale < 0 ? -1 : 1;
+
+        return s;
+    }
+
+    /**
+     * @return about how many bytes an image takes
+     */
+    private static long size(BufferedImage img)
+    {
+        return (long)img.getWidth() * img.getHeight() * 4;
+    }
+
+    /**
+     * What makes a cached picture different from another one.
+     * The image is compared by identity, two copies of the same picture are different keys.
+     */
+    private static class Key
+    {
+        BufferedImage src;
+        int angle;
+        int xs;
+        int ys;
+
+        public int hashCode()
+        {
+            return ((System.identityHashCode(src) * 31 + angle) * 31 + xs) * 31 + ys;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+                return false;
+
+            Key k = (Key)o;
+            return src == k.src && angle == k.angle && xs == k.xs && ys == k.ys;
+        }
+    }
+}
@@ -16,11 +16,14 @@ import java.awt.event.*;
 import java.awt.image.*;
 
 import javax.swing.*;
-import javax.imageio.*;
 
 import java.io.*;
 
 import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
 
 /**
  * This is the main class for the GoodSky Game Library. This class is not meant
@@ -31,7 +34,7 @@ import java.util.*;
  * 
  * @author Skyler Goodell
  */
-public class gs extends JFrame {
+public class gs {
 
     // Static Fields
     protected static gs base = null;
@@ -48,6 +51,24 @@ public class gs extends JFrame {
     private long lastiteration;
     private double fps_actual;
 
+    // Fixed timestep loop (all times in ns). update_step is 0 when we are using the classic loop
+    private long update_step = 0;
+    private long update_last;
+    private long update_accumulator;
+    private int update_count;
+    private int update_maxcatchup = 5;
+    private double update_alpha = 1.0;
+
+    // The game clock (ns) that animations are timed by. It moves on once a frame, or by exactly one
+    // step every gs.update() with a fixed timestep, so it only changes between frames or updates
+    private long clock = 0;
+    private long clock_last = System.nanoTime();
+
+    // Render pacing for the fixed timestep loop (in ns)
+    private long frame_period;
+    private long frame_deadline;
+    private long frame_last;
+
     // Mouse fields
     private int mX;
     private int mY;
@@ -61,22 +82,90 @@ public class gs extends JFrame {
     private boolean   shiftkey = false;
     private boolean   enterkey = false;
 
-    // Stage Canvas where all the game happens
+    // Input events wait in these queues until sync() applies them, so the state above only changes
+    // between frames. input is filled by the AWT event thread, injected by pressKey/moveMouse/...
+    private InputQueue input = new InputQueue(4096);
+    private InputQueue injected = new InputQueue(4096);
+
+    // Which keys (by key code) and mouse buttons went down or up since the last sync()
+    private boolean[] keydown = new boolean[256];
+    private boolean[] keypressed = new boolean[256];
+    private boolean[] keyreleased = new boolean[256];
+    private boolean[] mousepressed = new boolean[4];
+    private boolean[] mousereleased = new boolean[4];
+
+    // The game window and the stage Canvas where all the game happens
+    // (both are null when we are running headless)
+    private JFrame frame;
     private Canvas canvas;
+    private boolean headless;
+    private boolean renderOn = true;
 
     // Buffer to double buffer our drawing
-    private Image iBuf;
+    private BufferedImage iBuf;
     private Graphics gBuf;
 
+    // Page flipping for accelerated rendering (null when we use the software buffer above)
+    private BufferStrategy strategy = null;
+    private int rendermode = RENDER_ACCELERATED;
+
+    // The graphics of the canvas, so we don't have to grab a new one every frame
+    private Graphics gScreen;
+
     // Background where we store the... well background (only if the user loads one)
     private BufferedImage background = null;
     private BufferedImage obackground = null;
     private int camerax = 0;
     private int cameray = 0;
 
-    /** The collection of game objects to render */
-    protected ArrayList<GameObject> objects = new ArrayList<GameObject>();
-    protected ArrayList<Text> texts = new ArrayList<Text>();
+    // Background for huge worlds that is loaded a tile at a time (only if the user loads one)
+    private TiledBackground tiled = null;
+
+    /** The collection of game objects to render, kept in draw order (deepest first, then oldest first) */
+    protected TreeSet<GameObject> objects = new TreeSet<GameObject>();
+
+    // Stores of lightweight entities, drawn together with the objects
+    private ArrayList<EntityStore> stores = new ArrayList<EntityStore>();
+
+    // Particle systems, moved on every frame (every update with a fixed timestep) and drawn with the objects
+    private ArrayList<ParticleSystem> particles = new ArrayList<ParticleSystem>();
+
+    // Text to draw this frame. The Text objects are reused every frame, textcount says how many are in use
+    private Text[] texts = new Text[16];
+    private int textcount = 0;
+    private Font textfont;
+    private int textascent;
+    private TextCache textcache = new TextCache(256);
+    private long nextorder = 0;
+
+    // Spatial index so we only look at objects near the camera (null when it is off)
+    private SpatialGrid grid = null;
+    private int grid_cellsize;
+    private ArrayList<GameObject> onscreen = new ArrayList<GameObject>();
+
+    // Every object with collision on, filed by position and group so the collision casts only look at the objects along the cast
+    private CollisionIndex colindex = new CollisionIndex(64);
+    private ArrayList<GameObject> colfound = new ArrayList<GameObject>();
+    private SweepAndPrune overlaps = new SweepAndPrune();
+    private RayCaster rays = new RayCaster();
+
+    // true to send moveCollisionCircle and slideCollisionCircle through the distance field sweep
+    private boolean sweptCollision = false;
+
+    // Dirty rectangle drawing: only redraw the parts of the screen that changed since last frame
+    private boolean dirtyOn = false;
+    private boolean dirtyAll = true;
+    private ArrayList<Rectangle> dirty = new ArrayList<Rectangle>();
+    private ArrayList<Rectangle> textRects = new ArrayList<Rectangle>();
+    private BufferedImage dirtyBackground = null;
+    private TiledBackground dirtyTiled = null;
+    private Color dirtyColor = null;
+    private int dirtyCamerax = 0;
+    private int dirtyCameray = 0;
+
+    // Set by the window listeners when the window comes back on the screen (restored, uncovered, resized),
+    // the game thread then redraws all of it because whatever was on the screen is gone
+    private volatile boolean exposed = false;
 
     // Static Constants for different things
     /** Code for the LEFT Arrow Key */
@@ -101,168 +190,1555 @@ public class gs extends JFrame {
     public static final int COL_CIRCLE = 1;
     /** Code for Pixel Perfect collision with collision methods */
     public static final int COL_PIXEL = 2;
+
+    /** Code for drawing to a software buffer and copying it to the screen */
+    public static final int RENDER_SOFTWARE = 0;
+    /** Code for drawing with hardware accelerated page flipping (the default) */
+    public static final int RENDER_ACCELERATED = 1;
+
+    // Below this many ns left in a frame we stop sleeping and spin, sleep is not that accurate
+    private static final long SPIN_NANOS = 2000000;
+
+    // Most rectangles we will redraw separately before merging them together
+    private static final int MAX_DIRTY = 8;
+
+    // More dirty rectangles than this (lots of small movers) aren't worth merging pair by pair,
+    // we just redraw the one rectangle around all of them
+    private static final int MAX_DIRTY_MERGE = MAX_DIRTY * 4;
+
+    // Pipelined rendering: the game thread fills drawlist while the render thread draws drawfront.
+    // render_busy is true while the render thread has a list it hasn't finished drawing.
+    // If drawing fails the render thread stops, turns pipelining off and leaves the error in render_error
+    // for the game thread to throw from the next sync()
+    private volatile boolean pipelined = false;
+    private DrawList drawlist = new DrawList();
+    private DrawList drawfront = new DrawList();
+    private boolean render_busy = false;
+    private Throwable render_error = null;
+    private final Object render_lock = new Object();
+
+    // Frame timing (see FrameStats). phase_ns holds the times of this frame until it is recorded
+    private FrameStats stats = new FrameStats();
+    private long[] phase_ns = new long[FrameStats.PHASES];
+    private long stats_last = System.nanoTime();
+    private int stats_drawn;
     
     /**
      *  A static function call that will populate the base field.
      *  It is required to make this function call before you
      *  do anything else with the library.
      */
-    public static void start()
+    public static void start()
+    {
+        if (base == null)
+        {
+            // Create the game window
+            base = new gs(false);
+
+            running = true;
+        }
+        else
+            throw new GoodSkyException("You have already started the GoodSky Game Engine");
+    }
+
+    /**
+     *  Start the GoodSky Game Engine without a window. Everything works like normal
+     *  except the game is drawn to an image in memory (see getScreenImage) and input
+     *  comes from the pressKey/moveMouse/pressMouse commands instead of the keyboard and mouse.
+     *  This is handy for running lots of simulations or for timing your game on a server.
+     */
+    public static void startHeadless()
+    {
+        if (base == null)
+        {
+            base = new gs(true);
+
+            running = true;
+        }
+        else
+            throw new GoodSkyException("You have already started the GoodSky Game Engine");
+    }
+
+    /**
+     * Use this to make your main game loop
+     *
+     * @return this will return true when the program is still running and false
+     * once the program is complete
+     */
+    public static boolean gameloop()
+    {
+        return running;
+    }
+
+    /**
+     * This will render all our game objects to the screen and wait a certain amount
+     * to keep stable FPS.
+     *
+     * NOTE: You MUST call this function in your main game loop for ANYTHING to happen.
+     */
+    public static void sync()
+    {
+        // With a fixed timestep we draw objects between their last two updates
+        boolean interpolate = base.update_step > 0;
+        if (interpolate)
+        {
+            base.update_alpha = (double)base.update_accumulator / base.update_step;
+            if (base.update_alpha > 1.0) base.update_alpha = 1.0;
+        }
+
+        // If the render thread couldn't draw the last frame, tell the game now
+        base.render_rethrow();
+
+        // Without a fixed timestep the clock moves with real time (gs.update() moves it otherwise)
+        long tick = System.nanoTime();
+        if (!interpolate)
+            base.clock += tick - base.clock_last;
+        base.clock_last = tick;
+
+        // Without a fixed timestep the particles move on once a frame (gs.update() moves them otherwise)
+        if (!interpolate)
+        {
+            for (int i = 0; i < base.particles.size(); i++)
+                base.particles.get(i).step();
+        }
+
+        // phases that don't happen this frame stay at -1
+        Arrays.fill(base.phase_ns, -1);
+        base.stats_drawn = 0;
+        long flip;
+
+        // Draw straight into the page flipping back buffer if we have one
+        if (!base.renderOn)
+        {
+            // nothing to draw, we are only simulating
+        }
+        else if (base.dirtyOn && !base.pipelined && base.entity_count() == 0 && base.particle_count() == 0)
+        {
+            // Only redraw and flip what changed (this needs the software buffer to remember the last frame)
+            long start = System.nanoTime();
+            base.draw_dirty((Graphics2D)base.gBuf, interpolate);
+
+            flip = System.nanoTime();
+            base.phase_ns[FrameStats.PHASE_OBJECTS] = flip - start;
+
+            if (base.gScreen != null)
+            {
+                for (Rectangle r : base.dirty)
+                    base.gScreen.drawImage(base.iBuf, r.x, r.y, r.x + r.width, r.y + r.height, r.x, r.y, r.x + r.width, r.y + r.height, null);
+            }
+
+            base.dirty.clear();
+            base.phase_ns[FrameStats.PHASE_FLIP] = System.nanoTime() - flip;
+        }
+        else if (base.pipelined)
+        {
+            // Write down what to draw, the render thread draws it while we go on to the next frame
+            long start = System.nanoTime();
+            base.collect(base.drawlist, interpolate);
+            long collected = System.nanoTime() - start;
+
+            base.render_handoff();
+            base.phase_ns[FrameStats.PHASE_OBJECTS] = collected + Math.max(0, base.phase_ns[FrameStats.PHASE_OBJECTS]);
+        }
+        else
+        {
+            long start = System.nanoTime();
+            base.collect(base.drawlist, interpolate);
+            long collected = System.nanoTime() - start;
+
+            base.present(base.drawlist, base.phase_ns);
+            base.phase_ns[FrameStats.PHASE_OBJECTS] += collected;
+
+            // entities are drawn without dirty rectangles, so the dirty drawing has to start over afterwards
+            if (base.dirtyOn)
+                base.dirtyAll = true;
+        }
+
+        base.textcount = 0;
+
+        long sleep = System.nanoTime();
+        if (interpolate)
+        {
+            base.fixed_sync();
+        }
+        else
+        {
+            // Wait to keep the FPS somewhat constant
+            long now = System.currentTimeMillis();
+            base.fps_sync(base.fps_delay - (now - base.lastiteration));
+
+            // Calculate the FPS for testing use
+            base.fps_actual = (int)Math.ceil((double)1000/Math.max(1, now - base.lastiteration));
+            if (base.fps_delay > 0 && base.fps_actual > 1000/base.fps_delay) base.fps_actual = 1000/base.fps_delay;
+
+            base.lastiteration = now;
+        }
+
+        base.record_frame(sleep, interpolate);
+
+        // Get the keyboard and mouse input for the next frame
+        base.input_poll();
+    }
+
+    /**
+     * Apply every input event that came in since the last frame, oldest first.
+     * After this the key and mouse state is what it was when the last event happened,
+     * and the pressed/released flags say what changed since the last frame.
+     */
+    private void input_poll()
+    {
+        Arrays.fill(keypressed, false);
+        Arrays.fill(keyreleased, false);
+        Arrays.fill(mousepressed, false);
+        Arrays.fill(mousereleased, false);
+
+        while (true)
+        {
+            // take from whichever queue has the older event
+            boolean real = input.hasNext();
+            boolean fake = injected.hasNext();
+            if (!real && !fake)
+                break;
+
+            InputQueue q = real && (!fake || input.nextTime() - injected.nextTime() <= 0) ? input : injected;
+
+            int code = q.nextCode();
+            switch (q.nextType())
+            {
+                case InputQueue.KEY_DOWN:
+                    key_change(code, true);
+                    if (code >= 0 && code < keydown.length)
+                    {
+                        // holding a key down repeats the press, only the first one counts
+                        if (!keydown[code])
+                            keypressed[code] = true;
+                        keydown[code] = true;
+                    }
+                    break;
+
+                case InputQueue.KEY_UP:
+                    key_change(code, false);
+                    if (code >= 0 && code < keydown.length)
+                    {
+                        keyreleased[code] = true;
+                        keydown[code] = false;
+                    }
+                    break;
+
+                case InputQueue.MOUSE_DOWN:
+                    mouse_change(code, true);
+                    if (code >= 0 && code < mousepressed.length)
+                        mousepressed[code] = true;
+                    break;
+
+                case InputQueue.MOUSE_UP:
+                    mouse_change(code, false);
+                    if (code >= 0 && code < mousereleased.length)
+                        mousereleased[code] = true;
+                    break;
+
+                case InputQueue.MOUSE_MOVE:
+                    mX = q.nextX();
+                    mY = q.nextY();
+                    break;
+            }
+
+            q.remove();
+        }
+    }
+
+    /**
+     * Put the times of the frame that just finished into the frame stats.
+     * @param sleep when we started waiting for the next frame
+     * @param interpolate true if we are using the fixed timestep loop
+     */
+    private void record_frame(long sleep, boolean interpolate)
+    {
+        long now = System.nanoTime();
+        phase_ns[FrameStats.PHASE_SLEEP] = now - sleep;
+        phase_ns[FrameStats.PHASE_FRAME] = now - stats_last;
+        stats_last = now;
+
+        long budget = interpolate ? frame_period : fps_delay * 1000000L;
+        stats.record(phase_ns, budget, stats_drawn, objects.size() + entity_count() + particle_count() - stats_drawn);
+    }
+
+    /**
+     * @return how many entities there are in all the entity stores
+     */
+    private int entity_count()
+    {
+        int n = 0;
+        for (int i = 0; i < stores.size(); i++)
+            n += stores.get(i).size();
+        return n;
+    }
+
+    /**
+     * Count the particles a particle system drew, instead of the one layer image it added to the draw list.
+     * @param n how many particles it drew (0 if it didn't add a layer)
+     */
+    private void particles_drawn(int n)
+    {
+        if (n > 0)
+            stats_drawn += n - 1;
+    }
+
+    /**
+     * @return how many particles there are in all the particle systems
+     */
+    private int particle_count()
+    {
+        int n = 0;
+        for (int i = 0; i < particles.size(); i++)
+            n += particles.get(i).size();
+        return n;
+    }
+
+    /**
+     * Wait for a certain period of time on the thread. This happens to stabilize FPS.
+     * @param time: time in ms to wait
+     */
+    private void fps_sync(long time)
+    {
+        if (time > 0)
+        {
+            try {
+                Thread.sleep(time);
+            }
+            catch (Exception e) { }
+        }
+    }
+
+    /**
+     * Writes down the background, every object and all the text for this frame in a draw list.
+     * This runs on the game thread since it asks the objects for their images.
+     * @param list the draw list to fill
+     * @param interpolate true if objects should be drawn between their last two fixed updates
+     */
+    private void collect(DrawList list, boolean interpolate)
+    {
+        list.clear();
+
+        // The background
+        list.tiled = tiled;
+        list.background = background;
+        list.color = bColor;
+        list.camerax = camerax;
+        list.cameray = cameray;
+        list.width = width;
+        list.height = height;
+
+        // Only look at the objects near the camera if we have a spatial index
+        Collection<GameObject> drawlist = objects;
+        if (grid != null)
+        {
+            // objects drawn between updates can be up to a step away from where they are filed
+            int pad = interpolate ? grid_cellsize : 0;
+
+            grid.refresh();
+            onscreen.clear();
+            grid.query(camerax - pad, cameray - pad, camerax + width + pad, cameray + height + pad, onscreen);
+            Collections.sort(onscreen);
+            drawlist = onscreen;
+        }
+
+        // Entities and particles are drawn in between the objects by depth
+        int nstores = stores.size();
+        for (int i = 0; i < nstores; i++)
+            stores.get(i).beginDraw();
+        int nparticles = particles.size();
+        for (int i = 0; i < nparticles; i++)
+            particles.get(i).beginDraw();
+
+        // Add all objects in the objects list
+        for (GameObject obj : drawlist)
+        {
+            // first the entities and particles deeper than this object
+            for (int i = 0; i < nstores; i++)
+                stores.get(i).draw(list, obj.depth, interpolate, update_alpha);
+            for (int i = 0; i < nparticles; i++)
+                particles_drawn(particles.get(i).draw(list, obj.depth, interpolate, update_alpha));
+
+            if (!obj.visible) continue;
+
+            int ox = (int)obj.x;
+            int oy = (int)obj.y;
+            if (interpolate && obj.hasprev)
+            {
+                ox = (int)(obj.prevx + (obj.x - obj.prevx) * update_alpha);
+                oy = (int)(obj.prevy + (obj.y - obj.prevy) * update_alpha);
+            }
+
+            // I will change this to modify with the camera position
+            // And only draw the image if they are in the camera bounding box
+            obj.updateBound();
+            if (ox - (obj.boundwidth/2) < width + camerax && ox + (obj.boundwidth/2) > camerax &&
+                    oy - (obj.boundheight/2) < height + cameray && oy + (obj.boundheight/2) > cameray)
+                list.add(obj.getImage(), ox-(obj.boundwidth/2) - camerax, oy-(obj.boundheight/2) - cameray);
+        }
+
+        // and the entities and particles in front of every object
+        for (int i = 0; i < nstores; i++)
+            stores.get(i).draw(list, Long.MIN_VALUE, interpolate, update_alpha);
+        for (int i = 0; i < nparticles; i++)
+            particles_drawn(particles.get(i).draw(list, Long.MIN_VALUE, interpolate, update_alpha));
+
+        list.textstart = list.count;
+        stats_drawn += list.count;
+
+        // Add all the text (backwards so the first text ends up on top)
+        for (int i = textcount-1; i >= 0; i--)
+        {
+            Text t = texts[i];
+            BufferedImage img = textcache.get(t.msg, t.col, t.font);
+            if (img != null)
+                list.add(img, t.x - TextCache.PAD, t.y - t.ascent - TextCache.PAD);
+            else
+                list.addText(t.msg, t.col, t.font, t.x, t.y);
+        }
+    }
+
+    /**
+     * Draws everything in a draw list.
+     * @param g the graphics to draw the frame on
+     * @param list what to draw
+     * @param times where to put how long the clear, objects and text took
+     */
+    private static void paint(Graphics2D g, DrawList list, long[] times)
+    {
+        long start = System.nanoTime();
+
+        // Clear the background with a solid color or a background color if supplied
+        if (list.tiled != null)
+        {
+            list.tiled.draw(g, list.camerax, list.cameray, list.width, list.height);
+        }
+        else if (list.background != null)
+        {
+            g.drawImage(list.background, 0, 0, null);
+        }
+        else if (list.color != null)
+        {
+            g.setColor(list.color);
+            g.fillRect(0, 0, list.width, list.height);
+        }
+
+        long cleared = System.nanoTime();
+        times[FrameStats.PHASE_CLEAR] = cleared - start;
+
+        // Draw all the objects
+        for (int i = 0; i < list.textstart; i++)
+            g.drawImage(list.images[i], list.xs[i], list.ys[i], null);
+
+        long text = System.nanoTime();
+        times[FrameStats.PHASE_OBJECTS] = text - cleared;
+
+        // Draw all the text
+        for (int i = list.textstart; i < list.count; i++)
+        {
+            if (list.images[i] != null)
+                g.drawImage(list.images[i], list.xs[i], list.ys[i], null);
+            else
+                TextCache.draw(g, list.strings[i], list.colors[i], list.fonts[i], list.xs[i], list.ys[i]);
+        }
+
+        times[FrameStats.PHASE_TEXT] = System.nanoTime() - text;
+    }
+
+    /**
+     * Paints a draw list and gets it onto the screen, by page flipping if we have it or
+     * else by drawing to the software buffer and copying that to the screen.
+     * @param list what to draw
+     * @param times where to put how long each phase took
+     */
+    private void present(DrawList list, long[] times)
+    {
+        long flip;
+
+        if (strategy != null)
+        {
+            do {
+                // the back buffer can be lost (e.g. window minimized) so redraw until it sticks
+                do {
+                    Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+                    paint(g, list, times);
+                    g.dispose();
+                } while (strategy.contentsRestored());
+
+                // Flip the buffer
+                flip = System.nanoTime();
+                strategy.show();
+                times[FrameStats.PHASE_FLIP] = System.nanoTime() - flip;
+            } while (strategy.contentsLost());
+
+            flip = System.nanoTime();
+            Toolkit.getDefaultToolkit().sync();
+            times[FrameStats.PHASE_FLIP] += System.nanoTime() - flip;
+        }
+        else
+        {
+            paint((Graphics2D)gBuf, list, times);
+
+            // Flip the buffer
+            flip = System.nanoTime();
+            if (gScreen != null)
+                gScreen.drawImage(iBuf, 0, 0, null);
+            times[FrameStats.PHASE_FLIP] = System.nanoTime() - flip;
+        }
+    }
+
+    /**
+     * Give the draw list we just filled to the render thread. If it is still drawing the
+     * last frame we wait for it first, so the game is never more than one frame ahead.
+     */
+    private void render_handoff()
+    {
+        synchronized (render_lock)
+        {
+            long start = System.nanoTime();
+            while (render_busy)
+            {
+                try {
+                    render_lock.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            long waited = System.nanoTime() - start;
+
+            // the render thread gave up on the last frame, there is nobody to hand this one to
+            if (render_error != null)
+            {
+                render_rethrow();
+                return;
+            }
+
+            // The list the render thread just finished tells us how long drawing took
+            DrawList done = drawfront;
+            phase_ns[FrameStats.PHASE_CLEAR] = done.phase_ns[FrameStats.PHASE_CLEAR];
+            phase_ns[FrameStats.PHASE_OBJECTS] = done.phase_ns[FrameStats.PHASE_OBJECTS];
+            phase_ns[FrameStats.PHASE_TEXT] = done.phase_ns[FrameStats.PHASE_TEXT];
+            phase_ns[FrameStats.PHASE_FLIP] = Math.max(0, done.phase_ns[FrameStats.PHASE_FLIP]) + waited;
+
+            // swap the lists, the one the render thread finished is ours to fill next frame
+            drawfront = drawlist;
+            drawlist = done;
+            render_busy = true;
+            render_lock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the render thread is done drawing, so it is safe to change what it draws with.
+     */
+    private void render_wait()
+    {
+        synchronized (render_lock)
+        {
+            while (render_busy)
+            {
+                try {
+                    render_lock.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Throw the error the render thread stopped with, on the game thread. Pipelining is already off by
+     * then, so the game can catch it and carry on drawing in sync().
+     */
+    private void render_rethrow()
+    {
+        Throwable t;
+        synchronized (render_lock)
+        {
+            t = render_error;
+            render_error = null;
+        }
+
+        if (t == null)
+            return;
+
+        // the software buffer didn't see the pipelined frames
+        dirtyAll = true;
+
+        if (t instanceof RuntimeException)
+            throw (RuntimeException)t;
+        if (t instanceof Error)
+            throw (Error)t;
+        throw new GoodSkyException("The render thread stopped: " + t);
+    }
+
+    /**
+     * What the render thread does: wait for a draw list, draw it, and repeat until pipelining is turned off.
+     */
+    private void render_loop()
+    {
+        while (true)
+        {
+            DrawList list;
+            synchronized (render_lock)
+            {
+                while (!render_busy)
+                {
+                    if (!pipelined)
+                        return;
+
+                    try {
+                        render_lock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                list = drawfront;
+            }
+
+            Throwable failed = null;
+            try {
+                present(list, list.phase_ns);
+            }
+            catch (Throwable t) {
+                failed = t;
+            }
+
+            synchronized (render_lock)
+            {
+                render_busy = false;
+
+                // stop here, the game thread throws the error from its next sync()
+                if (failed != null)
+                {
+                    render_error = failed;
+                    pipelined = false;
+                }
+
+                render_lock.notifyAll();
+            }
+
+            if (failed != null)
+                return;
+        }
+    }
+
+    /**
+     * Draw all the text for this frame. Text we have seen before is copied out of the text cache,
+     * new text is drawn with drawString. draw_dirty looks the pictures up first (Text.img).
+     * @param g the graphics to draw the text on
+     */
+    private void draw_text(Graphics2D g)
+    {
+        for (int i = textcount-1; i >= 0; i--)
+        {
+            Text t = texts[i];
+            if (t.img != null)
+                g.drawImage(t.img, t.x - TextCache.PAD, t.y - t.ascent - TextCache.PAD, null);
+            else
+                TextCache.draw(g, t.msg, t.col, t.font, t.x, t.y);
+        }
+    }
+
+    /**
+     * Draws only the parts of the frame that changed since the last frame. Each object remembers
+     * where it was drawn last time, if it moved, changed images or disappeared then both the old
+     * and new spots are redrawn. When this returns the dirty list holds the rectangles that need flipping.
+     * @param g the graphics of the software buffer (it must still have last frame on it)
+     * @param interpolate true if objects should be drawn between their last two fixed updates
+     */
+    private void draw_dirty(Graphics2D g, boolean interpolate)
+    {
+        // The window was shown again, the screen has to be drawn from scratch
+        if (exposed)
+        {
+            exposed = false;
+            dirtyAll = true;
+        }
+
+        // Changing the camera or background means everything moves
+        if (camerax != dirtyCamerax || cameray != dirtyCameray || background != dirtyBackground || tiled != dirtyTiled || bColor != dirtyColor)
+            dirtyAll = true;
+
+        dirtyCamerax = camerax;
+        dirtyCameray = cameray;
+        dirtyBackground = background;
+        dirtyTiled = tiled;
+        dirtyColor = bColor;
+
+        // Find every object that changed since the last frame
+        for (GameObject obj : objects)
+        {
+            int ox = (int)obj.x;
+            int oy = (int)obj.y;
+            if (interpolate && obj.hasprev)
+            {
+                ox = (int)(obj.prevx + (obj.x - obj.prevx) * update_alpha);
+                oy = (int)(obj.prevy + (obj.y - obj.prevy) * update_alpha);
+            }
+
+            boolean show = false;
+            if (obj.visible)
+            {
+                obj.updateBound();
+                show = ox - (obj.boundwidth/2) < width + camerax && ox + (obj.boundwidth/2) > camerax &&
+                        oy - (obj.boundheight/2) < height + cameray && oy + (obj.boundheight/2) > cameray;
+            }
+
+            BufferedImage img = show ? obj.getImage() : null;
+            if (show)
+                stats_drawn++;
+
+            int sx = ox - (obj.boundwidth/2) - camerax;
+            int sy = oy - (obj.boundheight/2) - cameray;
+
+            if (show == obj.drawn && img == obj.drawnimage && sx == obj.drawnx && sy == obj.drawny)
+                continue;
+
+            if (obj.drawn)
+                dirty.add(new Rectangle(obj.drawnx, obj.drawny, obj.drawnw, obj.drawnh));
+            if (show)
+                dirty.add(new Rectangle(sx, sy, img.getWidth(), img.getHeight()));
+
+            obj.drawn = show;
+            obj.drawnimage = img;
+            obj.drawnx = sx;
+            obj.drawny = sy;
+            obj.drawnw = show ? img.getWidth() : 0;
+            obj.drawnh = show ? img.getHeight() : 0;
+        }
+
+        // Text is redrawn every frame, both where it was and where it is now
+        dirty.addAll(textRects);
+        textRects.clear();
+
+        for (int i = 0; i < textcount; i++)
+        {
+            Text t = texts[i];
+
+            // look the picture up once here, draw_text is called for every dirty rectangle
+            t.img = textcache.get(t.msg, t.col, t.font);
+            int w = t.img != null ? t.img.getWidth() : textcache.getWidth(t.msg, t.font);
+            int h = t.img != null ? t.img.getHeight() : textcache.getHeight(t.font);
+            if (w <= TextCache.PAD*2)
+                continue;
+
+            Rectangle r = new Rectangle(t.x - TextCache.PAD, t.y - t.ascent - TextCache.PAD, w, h);
+            textRects.add(r);
+            dirty.add(r);
+        }
+
+        merge_dirty();
+
+        // Redraw each dirty rectangle with everything that touches it
+        for (Rectangle r : dirty)
+        {
+            g.setClip(r.x, r.y, r.width, r.height);
+
+            if (tiled != null)
+            {
+                // only the tiles under this rectangle
+                g.translate(r.x, r.y);
+                tiled.draw(g, camerax + r.x, cameray + r.y, r.width, r.height);
+                g.translate(-r.x, -r.y);
+            }
+            else if (background != null)
+            {
+                g.drawImage(background, 0, 0, null);
+            }
+            else if (bColor != null)
+            {
+                g.setColor(bColor);
+                g.fillRect(r.x, r.y, r.width, r.height);
+            }
+
+            for (GameObject obj : objects)
+            {
+                if (obj.drawn && obj.drawnx < r.x + r.width && obj.drawnx + obj.drawnw > r.x &&
+                        obj.drawny < r.y + r.height && obj.drawny + obj.drawnh > r.y)
+                    g.drawImage(obj.drawnimage, obj.drawnx, obj.drawny, null);
+            }
+
+            draw_text(g);
+        }
+
+        g.setClip(null);
+    }
+
+    /**
+     * Clip the dirty rectangles to the screen and merge them down to a handful.
+     * If most of the screen changed then we just redraw the whole thing, and if there are too
+     * many rectangles to merge quickly we redraw the one rectangle around all of them.
+     */
+    private void merge_dirty()
+    {
+        Rectangle screen = new Rectangle(0, 0, width, height);
+
+        long area = 0;
+        for (int i = dirty.size()-1; i >= 0; i--)
+        {
+            Rectangle r = dirty.get(i).intersection(screen);
+            if (r.isEmpty())
+                dirty.remove(i);
+            else
+            {
+                dirty.set(i, r);
+                area += (long)r.width * r.height;
+            }
+        }
+
+        if (dirtyAll || area * 2 > (long)width * height)
+        {
+            dirty.clear();
+            dirty.add(screen);
+            dirtyAll = false;
+            return;
+        }
+
+        if (dirty.size() > MAX_DIRTY_MERGE)
+        {
+            Rectangle all = dirty.get(0);
+            for (int i = 1; i < dirty.size(); i++)
+                all.add(dirty.get(i));
+
+            dirty.clear();
+            dirty.add(all);
+            return;
+        }
+
+        // Overlapping rectangles are always merged, then keep merging the pair
+        // that wastes the least area until we are down to MAX_DIRTY
+        while (dirty.size() > 1)
+        {
+            int besti = -1, bestj = -1;
+            long bestwaste = Long.MAX_VALUE;
+
+            for (int i = 0; i < dirty.size(); i++)
+            {
+                Rectangle a = dirty.get(i);
+                for (int j = i+1; j < dirty.size(); j++)
+                {
+                    Rectangle b = dirty.get(j);
+
+                    // the area the rectangle around both would draw that neither of them needs
+                    long uw = Math.max(a.x + a.width, b.x + b.width) - Math.min(a.x, b.x);
+                    long uh = Math.max(a.y + a.height, b.y + b.height) - Math.min(a.y, b.y);
+                    long waste = uw * uh - (long)a.width * a.height - (long)b.width * b.height;
+                    if (a.intersects(b)) waste = Long.MIN_VALUE;
+
+                    if (waste < bestwaste)
+                    {
+                        bestwaste = waste;
+                        besti = i;
+                        bestj = j;
+                    }
+                }
+            }
+
+            if (bestwaste != Long.MIN_VALUE && dirty.size() <= MAX_DIRTY)
+                break;
+
+            // (the clipped rectangles are all our own copies, so we can grow one in place)
+            dirty.get(besti).add(dirty.get(bestj));
+            dirty.remove(bestj);
+        }
+    }
+
+    /**
+     * Set up page flipping on the canvas if we are using accelerated rendering.
+     * If the system won't give us a buffer strategy we quietly stay with the software buffer.
+     */
+    private void create_strategy()
+    {
+        strategy = null;
+
+        if (rendermode != RENDER_ACCELERATED || canvas == null)
+            return;
+
+        try {
+            // Ask for VolatileImage buffers first, otherwise take whatever AWT can give us
+            try {
+                canvas.createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true), null));
+            }
+            catch (AWTException e) {
+                canvas.createBufferStrategy(2);
+            }
+
+            strategy = canvas.getBufferStrategy();
+        }
+        catch (Exception e) {
+            strategy = null;
+        }
+    }
+
+    /**
+     * Wait until the next frame is due when running with a fixed timestep.
+     * This keeps its own clock in ns so that rates like 60 fps come out exactly.
+     */
+    private void fixed_sync()
+    {
+        long now = System.nanoTime();
+
+        // If we fell way behind then don't try to make up for it by rushing frames
+        // (with no frame limit we don't wait at all)
+        frame_deadline += frame_period;
+        if (now - frame_deadline > frame_period)
+            frame_deadline = now + frame_period;
+
+        wait_until(frame_deadline);
+
+        now = System.nanoTime();
+        fps_actual = 1000000000.0 / Math.max(1, now - frame_last);
+        if (frame_period > 0 && fps_actual > 1000000000.0 / frame_period) fps_actual = 1000000000.0 / frame_period;
+
+        frame_last = now;
+        update_count = 0;
+    }
+
+    /**
+     * Wait until System.nanoTime() reaches the deadline. We sleep for most of the wait
+     * and then spin for the last bit because the sleep can wake up late.
+     * @param deadline the time in ns to wait for
+     */
+    private void wait_until(long deadline)
+    {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS)
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+
+        while (deadline - System.nanoTime() > 0)
+            Thread.yield();
+    }
+
+    /**
+     * Sets the desired frames per second
+     * @param fps frames per second. Use 0 to run as fast as possible (good for headless simulations)
+     */
+    public static void setFPS(int fps)
+    {
+        base.fps_delay = fps > 0 ? 1000/fps : 0;
+        base.frame_period = fps > 0 ? 1000000000L/fps : 0;
+    }
+
+    /**
+     * Run your game logic at a fixed rate, no matter how fast the screen is drawn.
+     * Once this is on, put your game logic inside a gs.update() loop:
+     *
+     *   while (gs.gameloop())
+     *   {
+     *       while (gs.update())
+     *       {
+     *           // move things around here
+     *       }
+     *       gs.sync();
+     *   }
+     *
+     * The screen is still drawn at the rate from setFPS, and objects are drawn smoothly between updates.
+     * @param updatesPerSecond how many times a second to update the game. Use 0 to turn this back off.
+     */
+    public static void setFixedTimestep(int updatesPerSecond)
+    {
+        if (updatesPerSecond <= 0)
+        {
+            base.update_step = 0;
+            return;
+        }
+
+        base.update_step = 1000000000L/updatesPerSecond;
+        base.update_accumulator = 0;
+        base.update_count = 0;
+        base.update_last = System.nanoTime();
+        base.frame_last = base.update_last;
+        base.frame_deadline = base.update_last;
+    }
+
+    /**
+     * Set the most updates we will run before drawing a frame. If the game falls further
+     * behind than this then the extra updates are dropped so the game doesn't lock up.
+     * @param updates the max number of updates per frame (default is 5)
+     */
+    public static void setMaxCatchUp(int updates)
+    {
+        base.update_maxcatchup = Math.max(1, updates);
+    }
+
+    /**
+     * Use this with setFixedTimestep to know when to update your game.
+     * @return true when it is time for another update. false once you are caught up and should call sync.
+     */
+    public static boolean update()
+    {
+        if (base.update_step <= 0)
+            throw new GoodSkyException("You need to call gs.setFixedTimestep before you can use gs.update()");
+
+        long now = System.nanoTime();
+        base.update_accumulator += now - base.update_last;
+        base.update_last = now;
+
+        if (base.update_accumulator < base.update_step)
+            return false;
+
+        // We are too far behind, drop the rest so we don't spiral out of control
+        if (base.update_count >= base.update_maxcatchup)
+        {
+            base.update_accumulator %= base.update_step;
+            return false;
+        }
+
+        base.update_accumulator -= base.update_step;
+        base.update_count++;
+        base.clock += base.update_step;
+
+        // remember where everything was so we can draw in between updates
+        for (GameObject obj : base.objects)
+        {
+            obj.prevx = obj.x;
+            obj.prevy = obj.y;
+            obj.hasprev = true;
+        }
+        for (int i = 0; i < base.stores.size(); i++)
+            base.stores.get(i).savePrevious();
+
+        // the particles move by themselves (and remember where they were)
+        for (int i = 0; i < base.particles.size(); i++)
+            base.particles.get(i).step();
+
+        return true;
+    }
+
+    /**
+     * How long the game has been running (in nanoseconds) by the game clock that animations are timed by.
+     * It moves on once every frame with real time, or with gs.setFixedTimestep by exactly one step every
+     * gs.update(), so everything in the same frame (or update) sees the same time.
+     * @return the game time in nanoseconds
+     */
+    public static long getGameTime()
+    {
+        return base.clock;
+    }
+
+    /**
+     * How far we are between the last update and the next one (0.0 to 1.0).
+     * This is what the fixed timestep loop uses to draw objects smoothly.
+     * @return the fraction of an update that has passed since the last update
+     */
+    public static double getAlpha()
+    {
+        return base.update_alpha;
+    }
+
+    /**
+     * This function tells you what the current Frames per Second is of the project.
+     * @return an integer estimating the frames per second
+     */
+    public static double getFPS()
+    {
+        return base.fps_actual;
+    }
+
+    /**
+     * Get the timing of the frames drawn so far: how long the background, objects, text,
+     * flipping and sleeping took, how many frames were too slow for the FPS and how many
+     * objects were drawn. Use this to find out why your game is slow or hitches.
+     * @return the frame stats (these keep updating every frame)
+     */
+    public static FrameStats getFrameStats()
+    {
+        return base.stats;
+    }
+
+    /**
+     * add an object to the render list
+     * @param obj object to be rendered
+     */
+    protected static void addObject(GameObject obj)
+    {
+        obj.order = base.nextorder++;
+        base.objects.add(obj);
+
+        if (base.grid != null)
+            base.grid.add(obj);
+    }
+
+    /**
+     * add an entity store to the render list
+     * @param store the store to draw
+     */
+    protected static void addEntityStore(EntityStore store)
+    {
+        if (!base.stores.contains(store))
+            base.stores.add(store);
+    }
+
+    /**
+     * remove an entity store from the render list
+     * @param store the store to stop drawing
+     */
+    protected static void removeEntityStore(EntityStore store)
+    {
+        base.stores.remove(store);
+    }
+
+    /**
+     * add a particle system to the game, it is moved on and drawn every frame
+     * @param system the particle system
+     */
+    protected static void addParticleSystem(ParticleSystem system)
+    {
+        if (!base.particles.contains(system))
+            base.particles.add(system);
+    }
+
+    /**
+     * remove a particle system from the game
+     * @param system the particle system to stop moving and drawing
+     */
+    protected static void removeParticleSystem(ParticleSystem system)
+    {
+        base.particles.remove(system);
+    }
+
+    /**
+     * remove an object from the render list
+     * @param obj object to be removed
+     */
+    protected static void removeObject(GameObject obj)
+    {
+        base.objects.remove(obj);
+
+        if (base.grid != null)
+            base.grid.remove(obj);
+
+        base.colindex.remove(obj);
+
+        // make sure the spot it was drawn in gets cleaned up
+        if (obj.drawn)
+        {
+            base.dirty.add(new Rectangle(obj.drawnx, obj.drawny, obj.drawnw, obj.drawnh));
+            obj.drawn = false;
+        }
+    }
+
+    /**
+     * Move an object to a new depth in the render list.
+     * @param obj object to move
+     * @param depth the new depth
+     */
+    protected static void moveObject(GameObject obj, int depth)
+    {
+        // the set is sorted by depth, so take it out before the depth changes
+        boolean listed = base.objects.remove(obj);
+        boolean collidable = base.colindex.remove(obj);
+        obj.depth = depth;
+        if (listed)
+            base.objects.add(obj);
+        if (collidable)
+            base.colindex.add(obj);
+
+        // it may be on top of different things now, redraw where it is
+        if (obj.drawn)
+            base.dirty.add(new Rectangle(obj.drawnx, obj.drawny, obj.drawnw, obj.drawnh));
+    }
+
+    /**
+     * Let the spatial index know an object changed size (scaled, rotated or got a new image)
+     * @param obj object that changed
+     */
+    protected static void resizeObject(GameObject obj)
+    {
+        if (base.grid != null)
+            base.grid.refresh(obj);
+
+        base.colindex.resize(obj);
+    }
+
+    /**
+     * Let the collision index know an object turned its collision on or off, or changed collision group
+     * @param obj object that changed
+     */
+    protected static void collideObject(GameObject obj)
+    {
+        // destroyed objects stay out of the index even if their collision is turned on
+        if (obj.collisionOn && base.objects.contains(obj))
+            base.colindex.add(obj);
+        else
+            base.colindex.remove(obj);
+    }
+
+    /**
+     * Find the collision object in a group that comes last in draw order.
+     * @param group the collision group, or -1 for any group
+     * @return the object, or null if there are no collision objects in the group
+     */
+    protected static GameObject lastCollisionObject(int group)
+    {
+        return base.colindex.last(group);
+    }
+
+    /**
+     * Find the collision objects of a group that may touch a rectangle, in draw order (the order the collision
+     * casts have always checked objects in). The list is reused by the next call.
+     * @param group the collision group, or -1 for any group
+     * @param x1 left of the rectangle
+     * @param y1 top of the rectangle
+     * @param x2 right of the rectangle
+     * @param y2 bottom of the rectangle
+     * @return the objects, you still have to check them yourself
+     */
+    protected static ArrayList<GameObject> collisionQuery(int group, double x1, double y1, double x2, double y2)
+    {
+        base.colindex.query(group, x1, y1, x2, y2, base.colfound);
+        return base.colfound;
+    }
+
+    /**
+     * This will change the size of the screen that we run the program on.
+     *
+     * @param width
+     * @param height
+     */
+    public static void setScreenSize(int width, int height)
+    {
+        // with pipelined rendering let the render thread finish with the old buffers first
+        base.render_wait();
+
+        base.width = width;
+        base.height = height;
+        
+        base.gBuf.dispose();
+
+        base.iBuf = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        base.gBuf = base.iBuf.getGraphics();
+        base.dirtyAll = true;
+
+        if (base.headless)
+            return;
+
+        //base.setSize(width, height);
+        base.canvas.setSize(width, height);
+        base.frame.pack();
+
+        // The old page flipping buffers are the wrong size now
+        base.gScreen.dispose();
+        base.gScreen = base.canvas.getGraphics();
+        base.create_strategy();
+    }
+
+    /**
+     * Choose how the screen is drawn. Accelerated rendering uses page flipping with video memory
+     * buffers when your computer supports it. Software rendering is the old way of doing things,
+     * try it if the screen looks wrong.
+     * @param mode gs.RENDER_ACCELERATED or gs.RENDER_SOFTWARE
+     */
+    public static void setRenderMode(int mode)
+    {
+        base.render_wait();
+        base.rendermode = mode;
+        base.create_strategy();
+    }
+
+    public static void setScreenTitle(String title)
+    {
+        if (base.frame != null)
+            base.frame.setTitle(title);
+    }
+
+    /**
+     * Turn drawing on or off. With drawing off sync() only keeps time, which lets
+     * a headless simulation run as fast as it can.
+     * @param onOff true to draw every frame (the default). false to skip drawing.
+     */
+    public static void setRenderingOn(boolean onOff)
+    {
+        base.renderOn = onOff;
+    }
+
+    /**
+     * Turn dirty rectangle drawing on or off. When this is on only the parts of the screen
+     * that changed since the last frame are redrawn. This is much faster for games where most
+     * things sit still (e.g. board games), but slower if everything is always moving.
+     * NOTE: this draws with the software buffer, even if accelerated rendering is on. It is not
+     * used while pipelined rendering is on (see setPipelinedRendering).
+     * @param onOff true to only redraw what changed. false to redraw everything every frame (the default).
+     */
+    public static void setDirtyRectanglesOn(boolean onOff)
+    {
+        base.dirtyOn = onOff;
+        base.dirtyAll = true;
+        base.dirty.clear();
+    }
+
+    /**
+     * Draw on a separate render thread. When this is on, sync() only writes down what to
+     * draw and hands that to the render thread, then your game goes straight on to the next
+     * frame while the last one is being drawn. On a computer with more than one core this
+     * can make a game with lots of work in its loop a lot faster.
+     * The screen shows each frame one frame later than normal. Dirty rectangles are not
+     * used while this is on.
+     * @param onOff true to draw on a render thread, false to draw in sync() (the default)
+     */
+    public static void setPipelinedRendering(boolean onOff)
+    {
+        if (onOff == base.pipelined)
+            return;
+
+        if (onOff)
+        {
+            base.pipelined = true;
+
+            Thread render = new Thread("goodsky-render")
+            {
+                public void run()
+                {
+                    base.render_loop();
+                }
+            };
+            render.setDaemon(true);
+            render.start();
+        }
+        else
+        {
+            // let the render thread finish its frame, then it stops by itself
+            synchronized (base.render_lock)
+            {
+                base.render_wait();
+                base.pipelined = false;
+                base.render_lock.notifyAll();
+            }
+
+            // the software buffer didn't see the pipelined frames
+            base.dirtyAll = true;
+        }
+    }
+
+    /**
+     * Turn on a spatial index for drawing. The world is split into a grid of square cells and each
+     * frame we only look at the objects in the cells the camera can see. Use this for big scrolling
+     * worlds where most of your objects are off the screen.
+     * @param cellsize size of the grid cells in pixels (a few times the size of your objects works well). Use 0 to turn the index off.
+     */
+    public static void setSpatialIndex(int cellsize)
     {
-        if (base == null)
+        if (cellsize <= 0)
         {
-            // Create the game window
-            base = new gs();
-
-            running = true;
+            base.grid = null;
+            return;
         }
-        else
-            throw new GoodSkyException("You have already started the GoodSky Game Engine");
+
+        base.grid = new SpatialGrid(cellsize);
+        base.grid_cellsize = cellsize;
+        for (GameObject obj : base.objects)
+            base.grid.add(obj);
     }
 
     /**
-     * Use this to make your main game loop
-     *
-     * @return this will return true when the program is still running and false
-     * once the program is complete
+     * Find every pair of collision objects that are overlapping (only objects with setCollisionOn(true) count).
+     * This is much faster than checking every object against every other object with isOverlap yourself.
+     * Each pair comes once, e.g.
+     * <pre>
+     * for (GameObject[] pair : gs.getOverlaps(gs.COL_BOX))
+     * {
+     *     // pair[0] and pair[1] are touching
+     * }
+     * </pre>
+     * The list (and the pairs in it) are reused the next time you call this, so don't keep them around.
+     * @param type the style of collision checking to use (gs.COL_BOX, gs.COL_CIRCLE or gs.COL_PIXEL, see GameObject.isOverlap)
+     * @return the overlapping pairs
      */
-    public static boolean gameloop()
+    public static ArrayList<GameObject[]> getOverlaps(int type)
     {
-        return running;
+        return base.overlaps.overlaps(base.colindex, type);
     }
 
     /**
-     * This will render all our game objects to the screen and wait a certain amount
-     * to keep stable FPS.
-     *
-     * NOTE: You MUST call this function in your main game loop for ANYTHING to happen.
+     * Cast a ray from (x, y) to (x + dx, y + dy) and find the first collision object in a group it runs into,
+     * exactly where it hits and which way the surface there is facing. Unlike castCollisionLine this doesn't
+     * step along the ray a pixel at a time, so long rays cost about the same as short ones.
+     * @param x x the ray starts at
+     * @param y y the ray starts at
+     * @param dx how far the ray goes in the x direction
+     * @param dy how far the ray goes in the y direction
+     * @param group the collision group to check against, or -1 for any group
+     * @param hit filled in with what the ray hit (see RayHit)
+     * @return true if the ray hit something
      */
-    public static void sync()
+    public static boolean castRay(double x, double y, double dx, double dy, int group, RayHit hit)
     {
-        // Choose the graphics for the sync
-        Graphics2D g = (Graphics2D)base.gBuf;
+        return base.rays.cast(base.colindex.grid(group), null, x, y, dx, dy, hit);
+    }
 
-        // Clear the background with a solid color or a background color if supplied
-        if (base.background != null)
-        {
-            g.drawImage(base.background, 0, 0, base);
-        }
-        else if (base.bColor != null)
-        {
-            g.setColor(base.bColor);
-            g.fillRect(0, 0, base.width, base.height);
-        }
+    /**
+     * Cast lots of rays at once, e.g. one for every bullet on the screen. This is faster than calling castRay
+     * for each of them, the collision objects are only looked up once. Ray i goes from (x[i], y[i]) to
+     * (x[i] + dx[i], y[i] + dy[i]) and what it hit goes in hits[i], e.g.
+     * <pre>
+     * if (gs.castRays(bx, by, vx, vy, bullets, ENEMIES, hits) > 0)
+     * {
+     *     for (int i = 0; i < bullets; i++)
+     *         if (hits[i].isHit()) // bullet i hit hits[i].getObject()
+     * }
+     * </pre>
+     * @param x x each ray starts at
+     * @param y y each ray starts at
+     * @param dx how far each ray goes in the x direction
+     * @param dy how far each ray goes in the y direction
+     * @param count how many rays to cast (the first count of each array are used)
+     * @param group the collision group to check against, or -1 for any group
+     * @param hits filled in with what each ray hit (each one must not be null)
+     * @return how many of the rays hit something
+     */
+    public static int castRays(double[] x, double[] y, double[] dx, double[] dy, int count, int group, RayHit[] hits)
+    {
+        if (count > x.length || count > y.length || count > dx.length || count > dy.length || count > hits.length)
+            throw new GoodSkyException("castRays was asked for " + count + " rays, but the arrays aren't that long");
 
-        // Draw all objects in the objects ArrayList
-        for (GameObject obj : base.objects)
+        SpatialGrid grid = base.colindex.grid(group);
+        int hit = 0;
+        for (int i = 0; i < count; i++)
         {
-            if (!obj.visible) continue;
-
-            // I will change this to modify with the camera position
-            // And only draw the image if they are in the camera bounding box
-            obj.updateBound();
-            if ((int)obj.x - (obj.boundwidth/2) < base.width + base.camerax && (int)obj.x + (obj.boundwidth/2) > base.camerax &&
-                    (int)obj.y - (obj.boundheight/2) < base.height + base.cameray && (int)obj.y + (obj.boundheight/2) > base.cameray)
-                g.drawImage(obj.getImage(), (int)obj.x-(obj.boundwidth/2) - base.camerax, (int)obj.y-(obj.boundheight/2) - base.cameray, base);
+            if (base.rays.cast(grid, null, x[i], y[i], dx[i], dy[i], hits[i]))
+                hit++;
         }
 
-        // Draw all the text
-        for (int i = base.texts.size()-1; i >= 0; i--)
-        {
-            g.setColor(base.texts.get(i).col);
-            g.drawString(base.texts.get(i).msg, base.texts.get(i).x, base.texts.get(i).y);
-            base.texts.remove(i);
-        }
+        return hit;
+    }
 
-        // Flip the buffer
-        base.canvas.getGraphics().drawImage(base.iBuf, 0, 0, base);
+    /**
+     * Cast a ray from an object (see castRay), the object itself is never hit.
+     */
+    protected static boolean castRayFrom(GameObject from, double dx, double dy, int group, RayHit hit)
+    {
+        return base.rays.cast(base.colindex.grid(group), from, from.x, from.y, dx, dy, hit);
+    }
 
-        // Wait to keep the FPS somewhat constant
-        long now = System.currentTimeMillis();
-        base.fps_sync(base.fps_delay - (now - base.lastiteration));
+    /**
+     * Change the cell size of the grid the collision functions (moveCollisionCircle, castCollisionLine...)
+     * use to find the objects near a cast. The default of 64 is fine for most games, if your collision
+     * objects are much bigger or smaller than that a cell size about the size of your objects is faster.
+     * @param cellsize size of the grid cells in pixels
+     */
+    public static void setCollisionCellSize(int cellsize)
+    {
+        CollisionIndex index = new CollisionIndex(cellsize);
+        for (GameObject obj : base.colindex.objects())
+            index.add(obj);
 
-        // Calculate the FPS for testing use
-        base.fps_actual = (int)Math.ceil((double)1000/(now - base.lastiteration));
-        if (base.fps_actual > 1000/base.fps_delay) base.fps_actual = 1000/base.fps_delay;
+        base.colindex = index;
+    }
 
-        base.lastiteration = now;
+    /**
+     * Make moveCollisionCircle and slideCollisionCircle (and their Group versions) sweep the circle with the
+     * distance fields like sweepCollisionCircle does, instead of stepping it a pixel at a time. The stepping
+     * ones can skip right through a thin object when something moves more than its thickness in one go,
+     * the swept ones can't, and they slide along the real surface normal. Off by default, so games made
+     * before this keep moving exactly the way they always did.
+     * @param onOff true to sweep, false to step a pixel at a time
+     */
+    public static void setSweptCollision(boolean onOff)
+    {
+        base.sweptCollision = onOff;
     }
 
     /**
-     * Wait for a certain period of time on the thread. This happens to stabilize FPS.
-     * @param time: time in ms to wait
+     * @return true if moveCollisionCircle and slideCollisionCircle sweep (see setSweptCollision)
      */
-    private void fps_sync(long time)
+    protected static boolean isSweptCollision()
     {
-        if (time > 0)
-        {
-            try {
-                Thread.sleep(time);
-            }
-            catch (Exception e) { }
-        }
+        return base.sweptCollision;
     }
 
     /**
-     * Sets the desired frames per second
+     * Get the image of the last frame that was drawn. This is mostly useful when
+     * running headless, e.g. to save a screenshot of a simulation.
+     * @return the image the game is drawn into
      */
-    public static void setFPS(int fps)
+    public static BufferedImage getScreenImage()
     {
-        base.fps_delay = 1000/fps;
+        // with pipelined rendering let the render thread finish the frame first
+        base.render_wait();
+        return base.iBuf;
     }
 
     /**
-     * This function tells you what the current Frames per Second is of the project.
-     * @return an integer estimating the frames per second
+     * GameObjects that use the same image file share one copy of it. This tells you how
+     * many times an image was already loaded when an object asked for it.
+     * @return number of image loads that didn't have to read the file
      */
-    public static double getFPS()
+    public static long getAssetCacheHits()
     {
-        return base.fps_actual;
+        return AssetCache.getHits();
     }
 
     /**
-     * add an object to the render list
-     * @param obj object to be rendered
+     * How many times an object asked for an image that had to be read from its file.
+     * @return number of image loads that read the file
      */
-    protected static void addObject(GameObject obj)
+    public static long getAssetCacheMisses()
     {
-        base.objects.add(obj);
-        Collections.sort(base.objects);
+        return AssetCache.getMisses();
     }
 
     /**
-     * remove an object from the render list
-     * @param obj object to be removed
+     * Store images the same way the screen does, so drawing them is a fast straight copy (this is on by default).
+     * Loaded images are converted once when they are loaded, so set this before you load any.
+     * You would only turn this off to compare the speed, or if an image looks wrong.
+     * @param onOff true to convert images to the screen format, false to keep them as they are
      */
-    protected static void removeObject(GameObject obj)
+    public static void setCompatibleImages(boolean onOff)
     {
-        base.objects.remove(obj);
+        CompatibleImages.enabled = onOff;
     }
 
     /**
-     * This will change the size of the screen that we run the program on.
-     *
-     * @param width
-     * @param height
+     * Turned objects are drawn at the nearest of a number of angles around the circle, and the
+     * turned pictures are kept so spinning objects don't have to be redrawn every frame.
+     * The default is 360 (every degree). Fewer steps use less memory but turning looks choppier.
+     * Set this before you make your objects.
+     * @param steps number of angles around the circle, or 0 to draw every angle exactly (and not keep them)
      */
-    public static void setScreenSize(int width, int height)
+    public static void setRotationSteps(int steps)
     {
-        base.width = width;
-        base.height = height;
-        
-        //base.setSize(width, height);
-        base.canvas.setSize(width, height);
-        base.pack();
+        TransformCache.setSteps(steps);
+    }
 
-        base.gBuf.dispose();
+    /**
+     * Set how much memory the turned and scaled pictures may take (32MB by default).
+     * When they take more, the ones that were used longest ago are thrown away.
+     * @param megabytes the most memory to use in MB
+     */
+    public static void setTransformCacheSize(int megabytes)
+    {
+        TransformCache.setBudget(megabytes * 1024L * 1024L);
+    }
 
-        base.iBuf = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        base.gBuf = base.iBuf.getGraphics();
+    /**
+     * Start loading images and sounds in the background, so they are ready before you need them.
+     * Your game keeps running while they load (so you can show a loading screen), and objects
+     * made afterwards with these files load instantly.
+     * Files ending in .wav, .mid, .midi, .au, .aif or .aiff are loaded as sounds, everything else as images.
+     * @param filenames the files to load. e.g. gs.preload("tree.png", "boom.wav")
+     * @return use this to check how far the loading is, see Preload
+     */
+    public static Preload preload(String... filenames)
+    {
+        return new Preload(filenames);
     }
 
-    public static void setScreenTitle(String title)
+    /**
+     * Forget all the shared images so the next objects read their files again
+     * (e.g. if you changed the image files while the game is running).
+     * Objects that already have their image keep it.
+     */
+    public static void clearAssetCache()
     {
-        base.setTitle(title);
+        AssetCache.clear();
     }
 
     /**
@@ -279,6 +1755,7 @@ public class gs extends JFrame {
      */
     public static void setBackgroundOff()
     {
+        base.close_tiled();
         base.background = null;
         base.bColor = null;
     }
@@ -291,7 +1768,8 @@ public class gs extends JFrame {
     public static void setBackgroundImage(String filename)
     {
         try {
-            base.obackground = ImageIO.read(new File(filename));
+            base.close_tiled();
+            base.obackground = AssetCache.getImage(filename);
 
             // check for cutting off on the edge
             if (base.obackground.getWidth() < base.width || base.obackground.getHeight() < base.height)
@@ -304,6 +1782,52 @@ public class gs extends JFrame {
         }
     }
 
+    /**
+     * Set a background image for a really big world (too big to keep in memory all at once).
+     * The image is cut into square tiles and only the tiles near the camera are loaded.
+     * The first time you use an image it takes a moment to cut it up, after that the tiles
+     * are saved in your temp folder and loading is quick.
+     * Move around the world with setCameraPosition just like a normal background image.
+     * @param filename The path to the file you want to make the background. e.g. "world.png"
+     * @param tilesize How big each tile is in pixels. 256 is a good size to start with.
+     */
+    public static void setTiledBackgroundImage(String filename, int tilesize)
+    {
+        try {
+            TiledBackground t = new TiledBackground(filename, tilesize);
+
+            // check for cutting off on the edge
+            if (t.getWidth() < base.width || t.getHeight() < base.height)
+            {
+                t.close();
+                throw new GoodSkyException("Background images must be larger or equal to the size of the stage.");
+            }
+
+            base.close_tiled();
+            base.tiled = t;
+            base.background = null;
+            base.obackground = null;
+            setCameraPosition(base.camerax, base.cameray);
+
+        } catch (IOException e) {
+            throw new GoodSkyException("BUMMER! I couldn't load the image file for the background! Make sure you typed the file name correctly!");
+        }
+    }
+
+    /**
+     * Let go of the tiled background if there is one.
+     */
+    private void close_tiled()
+    {
+        if (tiled != null)
+        {
+            // the render thread may still be drawing a frame with it
+            render_wait();
+            tiled.close();
+            tiled = null;
+        }
+    }
+
     /**
      * Position the virtual camera at position x and y. The camera can not go below 0,0
      * or beyond backgroundimage.width - stage.width, backgroundimage.height - stage.height.
@@ -318,6 +1842,17 @@ public class gs extends JFrame {
 
         if (base.camerax < 0) base.camerax = 0;
         if (base.cameray < 0) base.cameray = 0;
+
+        if (base.tiled != null)
+        {
+            if (base.camerax > base.tiled.getWidth() - base.width) base.camerax = base.tiled.getWidth() - base.width;
+            if (base.cameray > base.tiled.getHeight() - base.height) base.cameray = base.tiled.getHeight() - base.height;
+
+            // start loading the tiles around the camera before we need them
+            base.tiled.prefetch(base.camerax, base.cameray, base.width, base.height);
+            return;
+        }
+
         if (base.camerax > base.obackground.getWidth() - base.width) base.camerax = base.obackground.getWidth() - base.width;
         if (base.cameray > base.obackground.getHeight() - base.height) base.cameray = base.obackground.getHeight() - base.height;
         base.background = base.obackground.getSubimage(base.camerax, base.cameray, base.width, base.height);
@@ -336,16 +1871,21 @@ public class gs extends JFrame {
         Image titleOverlay;
 
         try {
-            titleOverlay = ImageIO.read(new File(imagefile));
+            titleOverlay = AssetCache.getImage(imagefile);
         }
         catch (Exception e) {
             throw new GoodSkyException(("Could not open the image you supplied for the title screen : ( Try again!"));
         }
+        // There is nobody to click on the title screen when we are headless
+        if (base.headless)
+            return;
+
         // Show the overlay while you wait for a key press
         while (!mouseLeft())
         {
-            base.canvas.getGraphics().drawImage(titleOverlay, 0, 0, base);
+            base.canvas.getGraphics().drawImage(titleOverlay, 0, 0, null);
             base.fps_sync(100);
+            base.input_poll();
         }
     }
 
@@ -355,7 +1895,8 @@ public class gs extends JFrame {
     public static void exit()
     {
         running = false;
-        base.setVisible(false);
+        if (base.frame != null)
+            base.frame.setVisible(false);
         System.exit(0);
     }
 
@@ -466,6 +2007,130 @@ public class gs extends JFrame {
         return base.enterkey;
     }
 
+    /**
+     * See if a letter key was pressed since the last frame. Unlike getKey this only says true
+     * once per press, and it catches quick taps that were let go before the frame ended.
+     * @param letter The character you want to check. e.g. 'W'
+     * @return true if the key went down since the last sync()
+     */
+    public static boolean getKeyPressed(char letter)
+    {
+        return getKeyCodePressed(Character.toUpperCase(letter));
+    }
+
+    /**
+     * See if a letter key was let go since the last frame.
+     * @param letter The character you want to check. e.g. 'W'
+     * @return true if the key went up since the last sync()
+     */
+    public static boolean getKeyReleased(char letter)
+    {
+        return getKeyCodeReleased(Character.toUpperCase(letter));
+    }
+
+    /**
+     * See if any key was pressed since the last frame.
+     * @param keycode the key to check. e.g. KeyEvent.VK_SPACE or KeyEvent.VK_LEFT
+     * @return true if the key went down since the last sync()
+     */
+    public static boolean getKeyCodePressed(int keycode)
+    {
+        return keycode >= 0 && keycode < base.keypressed.length && base.keypressed[keycode];
+    }
+
+    /**
+     * See if any key was let go since the last frame.
+     * @param keycode the key to check. e.g. KeyEvent.VK_SPACE or KeyEvent.VK_LEFT
+     * @return true if the key went up since the last sync()
+     */
+    public static boolean getKeyCodeReleased(int keycode)
+    {
+        return keycode >= 0 && keycode < base.keyreleased.length && base.keyreleased[keycode];
+    }
+
+    /**
+     * See if the left mouse button was clicked since the last frame.
+     * @return true if the left mouse button went down since the last sync()
+     */
+    public static boolean mouseLeftPressed()
+    {
+        return base.mousepressed[MouseEvent.BUTTON1];
+    }
+
+    /**
+     * See if the left mouse button was let go since the last frame.
+     * @return true if the left mouse button went up since the last sync()
+     */
+    public static boolean mouseLeftReleased()
+    {
+        return base.mousereleased[MouseEvent.BUTTON1];
+    }
+
+    /**
+     * See if the right mouse button was clicked since the last frame.
+     * @return true if the right mouse button went down since the last sync()
+     */
+    public static boolean mouseRightPressed()
+    {
+        return base.mousepressed[MouseEvent.BUTTON3];
+    }
+
+    /**
+     * See if the right mouse button was let go since the last frame.
+     * @return true if the right mouse button went up since the last sync()
+     */
+    public static boolean mouseRightReleased()
+    {
+        return base.mousereleased[MouseEvent.BUTTON3];
+    }
+
+    /**
+     * Press a key as if it was pressed on the keyboard. This is how you give input to a headless game.
+     * Just like a real key press, the game sees it after the next gs.sync().
+     * @param keycode the key to press. e.g. KeyEvent.VK_W or KeyEvent.VK_SPACE
+     */
+    public static void pressKey(int keycode)
+    {
+        base.injected.offer(InputQueue.KEY_DOWN, keycode, 0, 0);
+    }
+
+    /**
+     * Release a key as if it was released on the keyboard.
+     * @param keycode the key to release. e.g. KeyEvent.VK_W or KeyEvent.VK_SPACE
+     */
+    public static void releaseKey(int keycode)
+    {
+        base.injected.offer(InputQueue.KEY_UP, keycode, 0, 0);
+    }
+
+    /**
+     * Move the mouse to a position on the screen as if the real mouse moved there.
+     * @param x x position of the mouse
+     * @param y y position of the mouse
+     */
+    public static void moveMouse(int x, int y)
+    {
+        base.injected.offer(InputQueue.MOUSE_MOVE, 0, x, y);
+    }
+
+    /**
+     * Press a mouse button as if it was clicked.
+     * @param button MouseEvent.BUTTON1 for the left button or MouseEvent.BUTTON3 for the right button
+     */
+    public static void pressMouse(int button)
+    {
+        base.injected.offer(InputQueue.MOUSE_DOWN, button, 0, 0);
+    }
+
+    /**
+     * Release a mouse button as if it was let go.
+     * @param button MouseEvent.BUTTON1 for the left button or MouseEvent.BUTTON3 for the right button
+     */
+    public static void releaseMouse(int button)
+    {
+        base.injected.offer(InputQueue.MOUSE_UP, button, 0, 0);
+    }
+
     /**
      * Print text to screen. Useful for debugging tests.
      *
@@ -475,12 +2140,40 @@ public class gs extends JFrame {
      */
     public static void text(String msg, int x, int y)
     {
-        base.texts.add(new Text(x, y, msg, Color.WHITE));
+        text(msg, x, y, Color.WHITE);
     }
 
     public static void text(String msg, int x, int y, Color c)
     {
-        base.texts.add(new Text(x, y, msg, c));
+        // grab the next unused Text object, only making new ones the first time we need that many
+        if (base.textcount == base.texts.length)
+        {
+            Text[] more = new Text[base.texts.length * 2];
+            System.arraycopy(base.texts, 0, more, 0, base.texts.length);
+            base.texts = more;
+        }
+
+        Text t = base.texts[base.textcount];
+        if (t == null)
+            t = base.texts[base.textcount] = new Text();
+        base.textcount++;
+
+        t.x = x;
+        t.y = y;
+        t.msg = msg;
+        t.col = c;
+        t.font = base.textfont;
+        t.ascent = base.textascent;
+    }
+
+    /**
+     * Change the font that text is printed with.
+     * @param font the font to use. e.g. new Font("Arial", Font.BOLD, 16)
+     */
+    public static void setTextFont(Font font)
+    {
+        base.textfont = font;
+        base.textascent = base.textcache.getAscent(font);
     }
 
     /**
@@ -488,36 +2181,78 @@ public class gs extends JFrame {
      */
     public gs()
     {
+        this(false);
+    }
+
+    /**
+     * Sets up the game, with or without a window.
+     * @param headless true to draw into memory only and never open a window
+     */
+    private gs(boolean headless)
+    {
+            this.headless = headless;
+
+            // Set up the buffer
+            iBuf = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            gBuf = iBuf.getGraphics();
+
+            // Text is printed in the normal font unless you change it
+            textfont = gBuf.getFont();
+            textascent = textcache.getAscent(textfont);
+
+            // Set up some game parameters
+            fps_delay = 1000/40; //defaults to 40fps
+            frame_period = 1000000000L/40;
+            fps_actual = 0;
+            lastiteration = System.currentTimeMillis();
+
+            // Show the frame stats over JMX. Starting JMX takes a moment so do it on the side
+            // (and it is fine if JMX isn't there)
+            Thread jmx = new Thread("goodsky-jmx")
+            {
+                public void run()
+                {
+                    try {
+                        ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName("goodsky:type=FrameStats"));
+                    }
+                    catch (Exception e) { }
+                }
+            };
+            jmx.setDaemon(true);
+            jmx.start();
+
+            if (headless)
+                return;
+
             // Set up the game window parameters
-            setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            setResizable(false);
+            frame = new JFrame();
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.setResizable(false);
 
             // Set up the canvas parameters
             canvas = new Canvas();
             canvas.setSize(width, height);
             canvas.setBackground(Color.BLACK);
+            canvas.setIgnoreRepaint(true);
 
             // Add canvas to our JFrame
-            add(canvas);
-            pack();
-
-            // Set up the buffer as well
-            iBuf = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            gBuf = iBuf.getGraphics();
+            frame.add(canvas);
+            frame.pack();
 
             // Start the event listeners
             canvas.addMouseListener(new GoodSkyMouseListener());
             canvas.addMouseMotionListener(new GoodSkyMouseMoveListener());
             canvas.addKeyListener(new GoodSkyKeyListener());
-
-            // Set up some game parameters
-            fps_delay = 1000/40; //defaults to 40fps
-            fps_actual = 0;
-            lastiteration = System.currentTimeMillis();
+            canvas.addComponentListener(new GoodSkyExposeListener());
+            frame.addWindowListener(new GoodSkyWindowListener());
 
             // Center and display the JFrame
-            setLocationRelativeTo(null);
-            setVisible(true);
+            frame.setLocationRelativeTo(null);
+            frame.setVisible(true);
+
+            // Page flipping can only be set up once the canvas is on the screen
+            gScreen = canvas.getGraphics();
+            create_strategy();
     }
 
     // *********************************************************
@@ -534,17 +2269,11 @@ public class gs extends JFrame {
         }
 
         public void mousePressed(MouseEvent e) {
-            if (e.getButton() == MouseEvent.BUTTON1)
-                mLK = true;
-            else if (e.getButton() == MouseEvent.BUTTON3)
-                mRK = true;
+            input.offer(InputQueue.MOUSE_DOWN, e.getButton(), e.getX(), e.getY());
         }
 
         public void mouseReleased(MouseEvent e) {
-            if (e.getButton() == MouseEvent.BUTTON1)
-                mLK = false;
-            else if (e.getButton() == MouseEvent.BUTTON3)
-                mRK = false;
+            input.offer(InputQueue.MOUSE_UP, e.getButton(), e.getX(), e.getY());
         }
 
         public void mouseEntered(MouseEvent e) {
@@ -560,13 +2289,11 @@ public class gs extends JFrame {
     private class GoodSkyMouseMoveListener implements MouseMotionListener
     {
         public void mouseDragged(MouseEvent e) {
-            mX = e.getX();
-            mY = e.getY();
+            input.offer(InputQueue.MOUSE_MOVE, 0, e.getX(), e.getY());
         }
 
         public void mouseMoved(MouseEvent e) {
-            mX = e.getX();
-            mY = e.getY();
+            input.offer(InputQueue.MOUSE_MOVE, 0, e.getX(), e.getY());
         }
     }
 
@@ -579,46 +2306,83 @@ public class gs extends JFrame {
         }
 
         public void keyPressed(KeyEvent e) {
-            int key = e.getKeyCode();
-            // alphabetic keys
-            if (key >= 65 && key <= 90)
-                letterkeys[key-65] = true;
-            // arrow keys
-            else if (key >= 37 && key <= 40)
-                arrowkey[key-37] = true;
-            // space key
-            else if (key == 32)
-                spacekey = true;
-            // shift key
-            else if (key == 16)
-                shiftkey = true;
-            // enter key
-            else if (key == 10)
-                enterkey = true;
+            input.offer(InputQueue.KEY_DOWN, e.getKeyCode(), 0, 0);
         }
 
         public void keyReleased(KeyEvent e) {
-            int key = e.getKeyCode();
-            // alphabetic keys
-            if (key >= 65 && key <= 90)
-                letterkeys[key-65] = false;
-            // arrow keys
-            else if (key >= 37 && key <= 40)
-                arrowkey[key-37] = false;
-            // space key
-            else if (key == 32)
-                spacekey = false;
-            // shift key
-            else if (key == 16)
-                shiftkey = false;
-            // enter key
-            else if (key == 10)
-                enterkey = false;
+            input.offer(InputQueue.KEY_UP, e.getKeyCode(), 0, 0);
+        }
+    }
+
+    /**
+     * Notices when the canvas is shown or resized, so dirty rectangle drawing redraws the whole screen.
+     */
+    private class GoodSkyExposeListener extends ComponentAdapter
+    {
+        public void componentShown(ComponentEvent e) {
+            exposed = true;
+        }
+
+        public void componentResized(ComponentEvent e) {
+            exposed = true;
+        }
+    }
+
+    /**
+     * Notices when the window is restored or brought back to the front, so dirty rectangle drawing
+     * redraws the whole screen (the parts that were covered up are gone).
+     */
+    private class GoodSkyWindowListener extends WindowAdapter
+    {
+        public void windowDeiconified(WindowEvent e) {
+            exposed = true;
+        }
+
+        public void windowActivated(WindowEvent e) {
+            exposed = true;
         }
     }
 
+    /**
+     * Updates the key state. Used by input_poll for both real and injected key events.
+     * @param key the key code that changed
+     * @param down true if the key is now down
+     */
+    private void key_change(int key, boolean down)
+    {
+        // alphabetic keys
+        if (key >= 65 && key <= 90)
+            letterkeys[key-65] = down;
+        // arrow keys
+        else if (key >= 37 && key <= 40)
+            arrowkey[key-37] = down;
+        // space key
+        else if (key == 32)
+            spacekey = down;
+        // shift key
+        else if (key == 16)
+            shiftkey = down;
+        // enter key
+        else if (key == 10)
+            enterkey = down;
+    }
+
+    /**
+     * Updates the mouse button state. Used by input_poll for both real and injected mouse events.
+     * @param button the mouse button that changed
+     * @param down true if the button is now down
+     */
+    private void mouse_change(int button, boolean down)
+    {
+        if (button == MouseEvent.BUTTON1)
+            mLK = down;
+        else if (button == MouseEvent.BUTTON3)
+            mRK = down;
+    }
+
     // *********************************************************
     // A nested class to hold information about text!!!
+    // (these get reused every frame so they are filled in by text())
     // *********************************************************
     private static class Text
     {
@@ -626,14 +2390,10 @@ public class gs extends JFrame {
         protected int y;
         protected String msg;
         protected Color col;
+        protected Font font;
+        protected int ascent;
 
-        public Text(int x, int y, String msg, Color col)
-        {
-            this.x = x;
-            this.y = y;
-
-            this.msg = msg;
-            this.col = col;
-        }
+        // The picture of the text from the text cache this frame, null to use drawString
+        protected BufferedImage img;
     }
 }
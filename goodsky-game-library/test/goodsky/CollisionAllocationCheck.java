@@ -0,0 +1,172 @@
+/*
+ * Checks that the collision casts don't allocate anything once they are warmed up.
+ *
+ * Run it with the library classes on the class path, e.g. from goodsky-game-library:
+ *   javac -d build/test/classes -cp build/classes test/goodsky/CollisionAllocationCheck.java
+ *   java -Djava.awt.headless=true -cp build/classes:build/test/classes goodsky.CollisionAllocationCheck
+ * It exits with 0 if every cast allocated nothing and 1 if any of them did.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Calls moveCollisionCircleGroup, slideCollisionCircleGroup (stepping and with gs.setSweptCollision),
+ * castCollisionCircleGroup, castCollisionLineGroup and sweepCollisionCircleGroup thousands of times among 2000 collision objects and counts the bytes the
+ * thread allocated while doing it (ThreadMXBean.getThreadAllocatedBytes). Collision masks, distance fields
+ * and the grid are made the first time they are needed, so a few rounds are run first to build them.
+ *
+ * Each cast is measured over several rounds and all of them together have to stay under NOISE_BYTES.
+ * Once in a long while the JIT's own bookkeeping adds a few dozen bytes to one round (running with -Xint
+ * always gives 0), and that shouldn't fail the check. Anything the casts allocate, even only now and then,
+ * adds up past that over all the calls.
+ */
+public class CollisionAllocationCheck
+{
+    // The casts being checked
+    private static final String[] NAMES = {
+        "moveCollisionCircleGroup", "slideCollisionCircleGroup", "castCollisionCircleGroup",
+        "castCollisionLineGroup", "sweepCollisionCircleGroup",
+        "moveCollisionCircleGroup (swept)", "slideCollisionCircleGroup (swept)"
+    };
+
+    // The collision groups the walls are in. Java keeps boxed Integers from -128 to 127 around,
+    // so a group number outside that catches anything that boxes the group.
+    private static final int[] GROUPS = { 0, 1, 2, 3, 100000 };
+
+    // Rounds to build the lazy data and let the JIT settle, then rounds that have to allocate nothing
+    private static final int WARMUP_ROUNDS = 8;
+    private static final int CHECKED_ROUNDS = 8;
+
+    // Most bytes all the checked rounds of a cast may allocate together (one bit of JIT bookkeeping)
+    private static final long NOISE_BYTES = 64;
+
+    public static void main(String[] args)
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+        {
+            System.out.println("This JVM can't count allocated bytes per thread, nothing was checked");
+            System.exit(2);
+        }
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)bean;
+        if (!mx.isThreadAllocatedMemorySupported())
+        {
+            System.out.println("This JVM can't count allocated bytes per thread, nothing was checked");
+            System.exit(2);
+        }
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        gs.startHeadless();
+        gs.setFPS(0);
+
+        Random r = new Random(3);
+
+        // things to run into, in 5 collision groups
+        ArrayList<GameObject> walls = new ArrayList<GameObject>();
+        for (int i = 0; i < 2000; i++)
+        {
+            GameObject w = new GameObject(i % 3 == 0 ? gs.CIRCLE : gs.SQUARE, 24, Color.RED);
+            w.position(r.nextInt(3000), r.nextInt(3000));
+            w.setCollisionOn(true);
+            w.setCollisionGroup(GROUPS[i % GROUPS.length]);
+            walls.add(w);
+        }
+
+        // the distance fields are only made when a sweep first needs them
+        for (int i = 0; i < walls.size(); i++)
+            walls.get(i).clearance(0, 0);
+
+        ArrayList<GameObject> movers = new ArrayList<GameObject>();
+        for (int i = 0; i < 300; i++)
+        {
+            GameObject m = new GameObject(gs.CIRCLE, 10, Color.BLUE);
+            m.position(r.nextInt(3000), r.nextInt(3000));
+            movers.add(m);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long[] total = new long[NAMES.length];
+        long[] worst = new long[NAMES.length];
+
+        for (int round = 0; round < WARMUP_ROUNDS + CHECKED_ROUNDS; round++)
+        {
+            for (int cast = 0; cast < NAMES.length; cast++)
+            {
+                // what asking for the count costs by itself
+                long empty0 = mx.getThreadAllocatedBytes(thread);
+                long empty1 = mx.getThreadAllocatedBytes(thread);
+
+                long before = mx.getThreadAllocatedBytes(thread);
+                for (int f = 0; f < 20; f++)
+                {
+                    for (int i = 0; i < movers.size(); i++)
+                        call(movers.get(i), cast, r);
+                }
+                long after = mx.getThreadAllocatedBytes(thread);
+
+                long bytes = (after - before) - (empty1 - empty0);
+                if (round >= WARMUP_ROUNDS)
+                {
+                    total[cast] += bytes;
+                    worst[cast] = Math.max(worst[cast], bytes);
+                }
+            }
+        }
+
+        boolean ok = true;
+        int calls = CHECKED_ROUNDS * 20 * movers.size();
+        for (int cast = 0; cast < NAMES.length; cast++)
+        {
+            System.out.println(NAMES[cast] + ": " + total[cast] + " bytes in " + calls + " calls (worst round " + worst[cast] + ")");
+            if (total[cast] > NOISE_BYTES)
+                ok = false;
+        }
+
+        System.out.println(ok ? "OK: the collision casts don't allocate" : "FAILED: a collision cast allocated memory");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Do one cast with a random direction and group (-1 is every group).
+     */
+    private static void call(GameObject m, int cast, Random r)
+    {
+        double dx = r.nextInt(9) - 4;
+        double dy = r.nextInt(9) - 4;
+        int pick = r.nextInt(GROUPS.length + 1);
+        int group = pick == GROUPS.length ? -1 : GROUPS[pick];
+
+        switch (cast)
+        {
+            case 0:
+                m.moveCollisionCircleGroup(dx, dy, 8, group);
+                break;
+            case 1:
+                m.slideCollisionCircleGroup(dx, dy, 8, group);
+                break;
+            case 2:
+                m.castCollisionCircleGroup(dx * 10, dy * 10, 8, group);
+                break;
+            case 3:
+                m.castCollisionLineGroup(dx * 20, dy * 20, group);
+                break;
+            case 4:
+                m.sweepCollisionCircleGroup(dx * 20, dy * 20, 8, group);
+                break;
+            case 5:
+                gs.setSweptCollision(true);
+                m.moveCollisionCircleGroup(dx * 5, dy * 5, 8, group);
+                gs.setSweptCollision(false);
+                break;
+            case 6:
+                gs.setSweptCollision(true);
+                m.slideCollisionCircleGroup(dx * 5, dy * 5, 8, group);
+                gs.setSweptCollision(false);
+                break;
+        }
+    }
+}
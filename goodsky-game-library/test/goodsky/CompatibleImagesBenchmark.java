@@ -0,0 +1,134 @@
+/*
+ * Times drawing sprites with gs.setCompatibleImages on and off.
+ *
+ * Run it with the library classes on the class path, e.g. from goodsky-game-library:
+ *   javac -d build/test/classes -cp build/classes test/goodsky/CompatibleImagesBenchmark.java
+ *   java -cp build/classes:build/test/classes goodsky.CompatibleImagesBenchmark
+ * With a screen it draws onto a video memory image like the page flipping buffers, add
+ * -Djava.awt.headless=true to draw onto the TYPE_INT_RGB software buffer like headless games do.
+ */
+package goodsky;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * Makes a 64x64 sprite stored the ways images usually come out of files (PNG with alpha, JPEG, GIF and
+ * plain ARGB), runs each one through CompatibleImages.convert with the switch on and with it off (off
+ * leaves it as it is), and times drawImage for each. The gain the switch gives is the "off" time over
+ * the "on" time.
+ */
+public class CompatibleImagesBenchmark
+{
+    // How many sprites are drawn for each timing, and how many timings we take the best of
+    private static final int DRAWS = 20000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args)
+    {
+        int[] types = {
+            BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_INT_ARGB
+        };
+        String[] names = { "PNG with alpha (4BYTE_ABGR)", "JPEG (3BYTE_BGR)", "GIF (BYTE_INDEXED)", "INT_ARGB" };
+
+        // what we draw onto: video memory if there is a screen, else the buffer headless games use
+        GraphicsConfiguration gc = null;
+        if (!GraphicsEnvironment.isHeadless())
+            gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+
+        Image target;
+        if (gc != null)
+            target = gc.createCompatibleVolatileImage(800, 600);
+        else
+            target = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+
+        System.out.println("Drawing onto " + (gc != null ? "a video memory image" : "a TYPE_INT_RGB buffer (headless)"));
+        System.out.println("ns per drawImage of a 64x64 sprite, best of " + RUNS + " x " + DRAWS + " draws:");
+
+        for (int i = 0; i < types.length; i++)
+        {
+            BufferedImage src = sprite(types[i]);
+
+            gs.setCompatibleImages(false);
+            double off = time(target, CompatibleImages.convert(src));
+
+            gs.setCompatibleImages(true);
+            BufferedImage converted = CompatibleImages.convert(src);
+            double on = time(target, converted);
+
+            System.out.println(String.format("  %-28s off %8.1f   on %8.1f   off/on %.2f   (converted to %s)",
+                    names[i], off, on, off / on, describe(converted)));
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * A sprite stored as the given image type: a circle with a soft edge (an opaque square for types without alpha).
+     */
+    private static BufferedImage sprite(int type)
+    {
+        BufferedImage img = new BufferedImage(64, 64, type);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        if (img.getColorModel().hasAlpha())
+        {
+            g.setColor(new Color(220, 120, 40));
+            g.fillOval(2, 2, 60, 60);
+        }
+        else
+        {
+            g.setPaint(new GradientPaint(0, 0, new Color(220, 120, 40), 64, 64, new Color(40, 80, 200)));
+            g.fillRect(0, 0, 64, 64);
+        }
+
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * @return the best time in nanoseconds for one drawImage of the sprite onto the target
+     */
+    private static double time(Image target, BufferedImage sprite)
+    {
+        Graphics2D g = (Graphics2D)target.getGraphics();
+        long best = Long.MAX_VALUE;
+
+        // the first run lets the JIT and the image caches settle
+        for (int run = 0; run <= RUNS; run++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < DRAWS; i++)
+                g.drawImage(sprite, (i * 37) % 736, (i * 53) % 536, null);
+
+            // wait for the graphics card to catch up
+            Toolkit.getDefaultToolkit().sync();
+            long took = System.nanoTime() - start;
+
+            if (run > 0)
+                best = Math.min(best, took);
+        }
+
+        g.dispose();
+        return best / (double)DRAWS;
+    }
+
+    /**
+     * @return a short description of how an image is stored
+     */
+    private static String describe(BufferedImage img)
+    {
+        switch (img.getType())
+        {
+            case BufferedImage.TYPE_INT_RGB: return "INT_RGB";
+            case BufferedImage.TYPE_INT_ARGB: return "INT_ARGB";
+            case BufferedImage.TYPE_INT_ARGB_PRE: return "INT_ARGB_PRE";
+            case BufferedImage.TYPE_4BYTE_ABGR: return "4BYTE_ABGR";
+            case BufferedImage.TYPE_3BYTE_BGR: return "3BYTE_BGR";
+            case BufferedImage.TYPE_BYTE_INDEXED: return "BYTE_INDEXED";
+            default: return "type " + img.getType();
+        }
+    }
+}